@@ -114,6 +114,15 @@ public class AdvancedPool implements database.definitions.AdvancedPool
    }
 
 
+   @Override
+   public int[] usage(boolean write)
+   {
+      DataSource pool = write ? primary : secondary;
+      if (pool == null) return(null);
+      return(new int[] {pool.getActive(),pool.getIdle(),pool.getWaitCount()});
+   }
+
+
    @Override
    public boolean authenticate(String username, String password) throws Exception
    {
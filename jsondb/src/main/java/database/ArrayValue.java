@@ -0,0 +1,96 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package database;
+
+import utils.Dates;
+import java.util.Date;
+import java.sql.Timestamp;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+
+/**
+ * A list of values bound as one array parameter, i.e. column = any(?).
+ * The type is the sql type of the elements.
+ */
+public class ArrayValue
+{
+   public final int type;
+   public final Object[] values;
+
+
+   public static ArrayValue from(JSONArray json, int type) throws Exception
+   {
+      Object[] values = new Object[json.length()];
+
+      for (int i = 0; i < values.length; i++)
+      {
+         values[i] = json.get(i);
+
+         if (SQLTypes.isDateType(type) && values[i] instanceof Number)
+            values[i] = new Date(((Number) values[i]).longValue());
+      }
+
+      return(new ArrayValue(type,values));
+   }
+
+
+   public ArrayValue(int type, Object[] values) throws Exception
+   {
+      this.type = type;
+      this.values = values;
+
+      for (int i = 0; i < values.length; i++)
+      {
+         if (values[i] == JSONObject.NULL)
+            values[i] = null;
+
+         // Drivers encodes the elements as text
+         if (SQLTypes.isDateType(type) && values[i] != null)
+            values[i] = new Timestamp(Dates.toDate(values[i]).getTime());
+      }
+   }
+
+
+   public JSONArray toJSON()
+   {
+      JSONArray json = new JSONArray();
+
+      for (int i = 0; i < values.length; i++)
+      {
+         Object value = values[i];
+         if (value instanceof Date) value = ((Date) value).getTime();
+         json.put(value == null ? JSONObject.NULL : value);
+      }
+
+      return(json);
+   }
+
+
+   public String toString()
+   {
+      return(toJSON().toString());
+   }
+}
@@ -29,6 +29,7 @@ import jsondb.Config;
 import java.util.Date;
 import messages.Messages;
 import utils.JSONOObject;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 
@@ -47,7 +48,7 @@ public class BindValue
    private boolean ampersand = false;
 
 
-   public static BindValue from(JSONObject json)
+   public static BindValue from(JSONObject json) throws Exception
    {
       BindValue bv = new BindValue();
 
@@ -59,6 +60,11 @@ public class BindValue
 		if (bv.value == JSONObject.NULL)
 			bv.value = null;
 
+      if (bv.value instanceof JSONArray && json.has("element"))
+         bv.value = ArrayValue.from((JSONArray) bv.value,json.getInt("element"));
+
+      else
+
       if (SQLTypes.getType(bv.type).indexOf("DATE") >= 0)
          bv.value = new Date((long) bv.value);
 
@@ -208,11 +214,17 @@ public class BindValue
       if (value instanceof Date)
          value = ((Date) value).getTime();
 
+      if (value instanceof ArrayValue)
+         value = ((ArrayValue) value).toJSON();
+
       JSONOObject json = new JSONOObject();
       json.put("name",name);
       json.put("type",type);
       json.put("ampersand",ampersand);
       json.put("value",value);
+
+      if (this.value instanceof ArrayValue)
+         json.put("element",((ArrayValue) this.value).type);
       return(json);
    }
 }
\ No newline at end of file
@@ -30,41 +30,64 @@ import state.State;
 import java.sql.Date;
 import jsondb.Config;
 import jsondb.Session;
+import jsondb.Monitor;
+import jsondb.Latency;
 import messages.Messages;
 import utils.JSONOObject;
+import events.FetchEvent;
 import java.sql.ResultSet;
-import java.sql.Statement;
 import java.sql.Timestamp;
 import org.json.JSONArray;
+import org.json.JSONObject;
 import java.util.ArrayList;
 import state.StatePersistency;
+import state.CursorPersistence;
 import java.util.logging.Level;
 import java.sql.ResultSetMetaData;
+import java.sql.PreparedStatement;
 import state.StatePersistency.CursorInfo;
 
 
 public class Cursor
 {
    private long pos = 0;
+   private long used = 0;
+   private long saved = 0;
+   private long executed = 0;
    private int excost = 0;
    private int ftccost = 0;
    private int pagesize = 0;
+   private int keycap = 0;
    private boolean eof = false;
+   private boolean dirty = false;
    private boolean prim = false;
    private boolean inuse = false;
+   private boolean traced = false;
+   private SQLPart seek = null;
+   private Keyset keyset = null;
    private ResultSet rset = null;
-   private Statement stmt = null;
+   private StatementCache cache = null;
+   private PreparedStatement stmt = null;
+   private JdbcInterface conn = null;
+   private JdbcInterface stream = null;
    private ArrayList<Column> columns = null;
 
    private final String sql;
    private final String guid;
+   private final String source;
+   private final FetchSize tuner;
    private final Session session;
    private final ArrayList<BindValue> bindvalues;
 
+   // Bytes reserved for the last key, when first written
+   private final static int KEYCAP = 256;
+   private final static long interval = StatePersistency.cursorInterval();
+   private final static CursorPersistence persistence = StatePersistency.cursorPersistence();
 
-   public static Cursor create(Session session, String sql, ArrayList<BindValue> bindvalues, int pagesize) throws Exception
+
+   public static Cursor create(Session session, String source, String sql, ArrayList<BindValue> bindvalues, int pagesize) throws Exception
    {
-      return(new Cursor(session,sql,bindvalues,pagesize));
+      return(new Cursor(session,source,sql,bindvalues,pagesize));
    }
 
    public static Cursor load(Session session, String cursid) throws Exception
@@ -77,6 +100,7 @@ public class Cursor
       Config.logger().info(Messages.get("REINSTATE_CURSOR",cursid));
 
       String sql = info.json.getString("query");
+      String source = info.json.optString("source",null);
 
       JSONArray bind = info.json.getJSONArray("bindvalues");
       ArrayList<BindValue> bindvalues = new ArrayList<BindValue>();
@@ -84,30 +108,41 @@ public class Cursor
       for (int i = 0; i < bind.length(); i++)
          bindvalues.add(BindValue.from(bind.getJSONObject(i)));
 
-      Cursor cursor = new Cursor(cursid,session,sql,bindvalues,info);
+      Cursor cursor = new Cursor(cursid,session,source,sql,bindvalues,info);
       cursor.pos = info.pos;
 
+      if (info.json.has("keyset"))
+      {
+         cursor.keycap = info.keycap;
+         cursor.keyset = Keyset.from(info.json.getJSONObject("keyset"));
+         if (info.key != null) cursor.keyset.last(info.key);
+      }
+
       return(cursor);
    }
 
 
-   private Cursor(Session session, String sql, ArrayList<BindValue> bindvalues, int pagesize) throws Exception
+   private Cursor(Session session, String source, String sql, ArrayList<BindValue> bindvalues, int pagesize) throws Exception
    {
       this.pos = 0;
       this.sql = sql;
       this.excost = 0;
+      this.source = source;
       this.session = session;
+      this.tuner = FetchSize.get(source);
       this.pagesize = pagesize;
       this.bindvalues = bindvalues;
       this.guid = pagesize <= 0 ? Guid.generate() : this.save();
    }
 
-   private Cursor(String guid, Session session, String sql, ArrayList<BindValue> bindvalues, CursorInfo info) throws Exception
+   private Cursor(String guid, Session session, String source, String sql, ArrayList<BindValue> bindvalues, CursorInfo info) throws Exception
    {
       this.pos = 0;
       this.sql = sql;
       this.guid = guid;
+      this.source = source;
       this.session = session;
+      this.tuner = FetchSize.get(source);
       this.excost = info.exc;
       this.ftccost = info.ftc;
       this.pagesize = info.pgz;
@@ -121,6 +156,7 @@ public class Cursor
 
    public String sql()
    {
+      if (seek != null) return(seek.snippet());
       return(sql);
    }
 
@@ -129,6 +165,11 @@ public class Cursor
       return(guid);
    }
 
+   public String source()
+   {
+      return(source);
+   }
+
    public boolean next()
    {
       return(!eof);
@@ -159,6 +200,18 @@ public class Cursor
       return(session);
    }
 
+   /** The connection borrowed for this cursor, if any */
+   public JdbcInterface connection()
+   {
+      return(conn);
+   }
+
+   /** Borrowed connection, returned to the session when the cursor is closed */
+   public void connection(JdbcInterface conn)
+   {
+      this.conn = conn;
+   }
+
    public long excost()
    {
       return(excost);
@@ -179,6 +232,51 @@ public class Cursor
       ftccost += nano/1000000;
    }
 
+   /** Execution time, traced with the next page. Decides if the cursor is traced */
+   public void executed(long nano)
+   {
+      this.executed = nano;
+      this.traced = SQLTrace.sample(source);
+      Latency.phase(Latency.EXECUTE,nano);
+   }
+
+   /** The connection running a transaction to stream this cursor */
+   public void streaming(JdbcInterface stream) throws Exception
+   {
+      if (this.stream != null && this.stream != stream)
+         this.stream.endStream(this);
+
+      this.stream = stream;
+      this.used = System.currentTimeMillis();
+
+      if (stream != null)
+         Monitor.stream(session);
+   }
+
+
+   /**
+    * Close a streamed cursor that has been idle for too long, to end its transaction.
+    * The position is saved, and the cursor is re-executed when fetched again.
+    * @return when the cursor expires, or 0 if it is not streamed
+    */
+   public synchronized long expire(long now, long idle)
+   {
+      if (eof || stream == null)
+         return(0);
+
+      if (now - used < idle)
+         return(used + idle);
+
+      Config.logger().info("end idle stream "+guid);
+      close(false,true);
+      return(0);
+   }
+
+   public int pagesize()
+   {
+      return(pagesize);
+   }
+
    public Cursor pagesize(Integer pagesize)
    {
       if (pagesize == null) pagesize = 0;
@@ -188,14 +286,27 @@ public class Cursor
 
    public ArrayList<BindValue> bindvalues()
    {
+      if (seek != null) return(seek.bindValues());
       return(bindvalues);
    }
 
-   public Cursor resultset(ResultSet rset) throws Exception
+   /** Resume by key instead of position, when the cursor is reinstated */
+   public Cursor keyset(Keyset keyset)
    {
+      this.keyset = keyset;
+      return(this);
+   }
+
+   public Cursor resultset(ResultSet rset, PreparedStatement stmt, StatementCache cache) throws Exception
+   {
+      // Re-executed, i.e. moved to another connection
+      if (this.stmt != null && this.stmt != stmt)
+         closeStatement();
+
       this.eof = false;
       this.rset = rset;
-      this.stmt = rset.getStatement();
+      this.stmt = stmt;
+      this.cache = cache;
       return(this);
    }
 
@@ -225,14 +336,22 @@ public class Cursor
 
    public synchronized ArrayList<Object[]> fetch() throws Exception
    {
+      used = System.currentTimeMillis();
       columns = describe();
       int cols = columns.size();
+
+      FetchEvent event = new FetchEvent();
+      event.begin();
+
       long nano = System.nanoTime();
       ArrayList<Object[]> rows = new ArrayList<Object[]>();
 
       if (this.prim)
          session.useSecondary(this);
 
+      if (keyset != null && !keyset.bound())
+         keyset.bind(rset.getMetaData());
+
       for (int i = 0; i < pagesize || pagesize <= 0; i++)
       {
          if (!rset.next())
@@ -254,13 +373,63 @@ public class Cursor
          rows.add(row);
       }
 
-      ftccost(System.nanoTime()-nano);
-      if (!eof) saveState();
+      if (keyset != null && keyset.usable() && rows.size() > 0 && !eof)
+         keyset.capture(rset);
+
+      nano = System.nanoTime() - nano;
+      ftccost(nano);
+      Latency.phase(Latency.FETCH,nano);
+      event.record(source,rows.size());
+
+      SQLTrace.trace(source,sql,bindvalues(),executed,nano,rows.size(),traced);
+      executed = 0;
+
+      if (tuner != null && rows.size() > 0)
+         tuner.observe(rows.size(),FetchSize.width(rows.get(0)),nano);
+
+      if (!eof)
+      {
+         dirty = true;
+
+         switch(persistence)
+         {
+            case Eager: saveState(); break;
+
+            case Interval:
+               if (System.currentTimeMillis() - saved >= interval) saveState();
+               break;
+
+            default: break;
+         }
+      }
 
       return(rows);
    }
 
 
+   /** Write position and costs, if not already done */
+   public synchronized void persist() throws Exception
+   {
+      if (!eof && dirty) saveState();
+   }
+
+
+   /**
+    * Prepare the query for seeking past the last row fetched.
+    * If the cursor has no usable key, it must be positioned by scanning.
+    */
+   public synchronized boolean seek()
+   {
+      this.seek = null;
+
+      if (keyset == null || !keyset.seekable())
+         return(false);
+
+      this.seek = keyset.seek(bindvalues);
+      return(true);
+   }
+
+
    public synchronized void position() throws Exception
    {
       for (int i = 0; i < this.pos; i++)
@@ -300,19 +469,30 @@ public class Cursor
       if (eof)
          return;
 
+      // Hand-off, the cursor can be reinstated by any instance
+      if (!delete && dirty)
+      {
+         try {saveState();} catch (Exception e)
+         {Config.logger().log(Level.SEVERE,e.toString(),e);}
+      }
+
       eof = true;
       inuse = false;
 
-      if (rset != null)
+      closeStatement();
+
+      if (stream != null)
       {
-         try {rset.close();} catch (Exception e)
+         try {stream.endStream(this);} catch (Exception e)
          {Config.logger().log(Level.SEVERE,e.toString(),e);}
+
+         stream = null;
       }
 
-      if (stmt != null)
+      if (conn != null)
       {
-         try {stmt.close();} catch (Exception e)
-         {Config.logger().log(Level.SEVERE,e.toString(),e);}
+         session.giveBack(conn);
+         conn = null;
       }
 
       if (delete)
@@ -329,13 +509,60 @@ public class Cursor
    }
 
 
+   private void closeStatement()
+   {
+      if (rset != null)
+      {
+         try {rset.close();} catch (Exception e)
+         {Config.logger().log(Level.SEVERE,e.toString(),e);}
+      }
+
+      if (stmt != null)
+      {
+         if (cache != null) cache.release(stmt);
+         else try {stmt.close();} catch (Exception e)
+         {Config.logger().log(Level.SEVERE,e.toString(),e);}
+      }
+
+      stmt = null;
+      cache = null;
+   }
+
+
    private String save() throws Exception
+   {
+      return(StatePersistency.createCursor(session.guid(),prim,this.pos,this.pagesize,definition()));
+   }
+
+
+   private void saveState() throws Exception
+   {
+      byte[] key = keyset == null ? null : keyset.last();
+
+      // The definition is only rewritten, when the key outgrows the space reserved for it
+      if (key == null || key.length <= keycap)
+      {
+         StatePersistency.updateCursor(session.guid(),guid,prim,this.pos,this.pagesize,this.excost,this.ftccost,key,keycap);
+      }
+      else
+      {
+         keycap = Math.max(KEYCAP,2*key.length);
+         StatePersistency.writeCursor(session.guid(),guid,prim,this.pos,this.pagesize,this.excost,this.ftccost,key,keycap,definition());
+      }
+
+      this.saved = System.currentTimeMillis();
+      this.dirty = false;
+   }
+
+
+   private JSONObject definition()
    {
       JSONArray bind = new JSONArray();
       JSONOObject data = new JSONOObject();
 
       data.put("query",sql);
       data.put("bindvalues",bind);
+      if (source != null) data.put("source",source);
 
       if (bindvalues != null)
       {
@@ -343,12 +570,9 @@ public class Cursor
             bind.put(bv.toJSON());
       }
 
-      return(StatePersistency.createCursor(session.guid(),prim,this.pos,this.pagesize,data));
-   }
-
+      if (keyset != null)
+         data.put("keyset",keyset.toJSON());
 
-   private void saveState() throws Exception
-   {
-      StatePersistency.updateCursor(session.guid(),guid,prim,this.pos,this.pagesize,this.excost,this.ftccost);
+      return(data);
    }
 }
\ No newline at end of file
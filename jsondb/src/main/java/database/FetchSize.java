@@ -0,0 +1,217 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package database;
+
+import jsondb.Config;
+import java.util.Date;
+import utils.JSONOObject;
+import org.json.JSONArray;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Tunes the JDBC fetch size for each source. The fetch size follows the number of rows
+ * read per page, bounded by the configured limits, and by the memory a single round trip may use.
+ * If a change makes fetching slower per row, it is reverted and not tried again until the pages changes.
+ */
+public class FetchSize
+{
+   private int size = 0;
+   private int last = 0;
+   private int blocked = 0;
+   private int samples = 0;
+
+   private long rows = 0;
+   private long pages = 0;
+   private long changes = 0;
+   private long changed = 0;
+
+   private double page = 0;
+   private double width = 0;
+   private double latency = 0;
+   private double before = 0;
+
+   private final String source;
+
+   private static final int SAMPLES = 8;
+   private static final double ALPHA = 0.2;
+   private static final double WORSE = 1.25;
+
+   private static final ConcurrentHashMap<String,FetchSize> sources =
+      new ConcurrentHashMap<String,FetchSize>();
+
+
+   public static FetchSize get(String source)
+   {
+      if (source == null) return(null);
+      return(sources.computeIfAbsent(source,FetchSize::new));
+   }
+
+
+   /** The fetch size to use for the cursor, 0 if the driver default should be used */
+   public static int size(Cursor cursor)
+   {
+      FetchSize tuner = get(cursor.source());
+      if (tuner == null) return(0);
+      return(tuner.size(cursor.pagesize()));
+   }
+
+
+   /** Rough memory use of a row, used to bound the rows fetched per round trip */
+   public static int width(Object[] row)
+   {
+      int width = 0;
+
+      for (int i = 0; i < row.length; i++)
+      {
+         Object value = row[i];
+
+         if (value == null) width += 4;
+         else if (value instanceof String) width += 40 + 2 * ((String) value).length();
+         else if (value instanceof byte[]) width += 16 + ((byte[]) value).length;
+         else width += 24;
+      }
+
+      return(width);
+   }
+
+
+   public static JSONArray stats()
+   {
+      JSONArray stats = new JSONArray();
+
+      for(FetchSize tuner : sources.values())
+         stats.put(tuner.toJSON());
+
+      return(stats);
+   }
+
+
+   private FetchSize(String source)
+   {
+      this.source = source;
+   }
+
+
+   public synchronized int size(int pagesize)
+   {
+      if (size == 0)
+      {
+         // Nothing observed yet, start at the page size
+         if (pagesize <= 0) return(0);
+         return(clamp(pagesize,Config.dbconfig().fetchmax()));
+      }
+
+      return(size);
+   }
+
+
+   /** Record the rows, estimated row width and time used to fetch a page */
+   public synchronized void observe(int rows, int width, long nano)
+   {
+      this.pages++;
+      this.rows += rows;
+
+      if (rows == 0)
+         return;
+
+      double ms = nano / 1000000.0;
+      boolean first = this.page == 0;
+
+      this.page = first ? rows : ewma(this.page,rows);
+      this.width = first ? width : ewma(this.width,width);
+      this.latency = samples == 0 ? ms/rows : ewma(this.latency,ms/rows);
+
+      if (++samples < SAMPLES && size != 0)
+         return;
+
+      // If the last change made fetching slower, go back
+      boolean revert = last != 0 && latency > before * WORSE;
+      int target = revert ? last : target();
+
+      if (target == size || (!revert && target == blocked))
+         return;
+
+      if (!revert && size != 0 && Math.abs(target - size) <= size / 4)
+         return;
+
+      this.blocked = revert ? size : 0;
+
+      this.last = size;
+      this.before = latency;
+
+      this.size = target;
+      this.samples = 0;
+      this.changes++;
+      this.changed = System.currentTimeMillis();
+   }
+
+
+   private int target()
+   {
+      int max = Config.dbconfig().fetchmax();
+      int mem = Config.dbconfig().fetchmemory();
+
+      if (width > 0) max = Math.min(max,(int) (mem / width));
+      return(clamp((int) Math.ceil(page),max));
+   }
+
+
+   private int clamp(int size, int max)
+   {
+      int min = Config.dbconfig().fetchmin();
+
+      if (size > max) size = max;
+      if (size < min) size = min;
+
+      return(size);
+   }
+
+
+   private static double ewma(double avg, double value)
+   {
+      return(avg + ALPHA * (value - avg));
+   }
+
+
+   private synchronized JSONOObject toJSON()
+   {
+      JSONOObject json = new JSONOObject();
+
+      json.put("source",source);
+      json.put("fetch-size",size);
+      json.put("previous",last);
+      json.put("pages",pages);
+      json.put("rows",rows);
+      json.put("rows-per-page",Math.round(page));
+      json.put("row-width",Math.round(width));
+      json.put("ms-per-1000-rows",Math.round(latency * 1000 * 100) / 100.0);
+      json.put("ms-per-1000-rows-before",Math.round(before * 1000 * 100) / 100.0);
+      json.put("changes",changes);
+      if (changed > 0) json.put("changed",new Date(changed).toString());
+
+      return(json);
+   }
+}
@@ -23,6 +23,9 @@ package database;
 
 import utils.Dates;
 import jsondb.Config;
+import jsondb.Latency;
+import events.SQLEvent;
+import java.util.HashSet;
 import java.util.HashMap;
 import java.sql.Statement;
 import java.sql.Savepoint;
@@ -30,6 +33,7 @@ import java.util.ArrayList;
 import utils.NameValuePair;
 import java.sql.Connection;
 import java.util.Properties;
+import java.util.logging.Level;
 import java.sql.CallableStatement;
 import java.sql.PreparedStatement;
 import database.definitions.AdvancedPool;
@@ -37,8 +41,11 @@ import database.definitions.AdvancedPool;
 
 public abstract class JdbcInterface
 {
+   private boolean write = false;
    private final AdvancedPool pool;
+   private StatementCache cache = null;
    protected Connection conn = null;
+   private final HashSet<Cursor> streams = new HashSet<Cursor>();
 
 
    public static JdbcInterface getInstance(boolean write) throws Exception
@@ -58,20 +65,35 @@ public abstract class JdbcInterface
 
    public JdbcInterface connect(String username, boolean write, boolean stateful) throws Exception
    {
+      this.write = write;
       this.conn = pool.getConnection(write);
 
       if (Config.dbconfig().useproxy())
          setProxyUser(conn,username);
 
       conn.setAutoCommit(!stateful);
+      this.cache = StatementCache.get(conn);
+
       return(this);
    }
 
-   public boolean disconnect() throws Exception
+   public synchronized boolean disconnect() throws Exception
    {
       if (conn == null) return(false);
       if (!conn.getAutoCommit()) conn.rollback();
 
+      if (streams.size() > 0)
+      {
+         streams.clear();
+         conn.setReadOnly(false);
+      }
+
+      // Statements are parsed as the proxy user, and cannot be shared with the next
+      if (cache != null && Config.dbconfig().useproxy())
+         cache.clear();
+
+      cache = null;
+
       if (Config.dbconfig().useproxy())
          releaseProxyUser(conn);
 
@@ -128,6 +150,12 @@ public abstract class JdbcInterface
 
 
    public boolean execute(String sql, boolean savepoint) throws Exception
+   {
+      return(execute(null,sql,savepoint));
+   }
+
+
+   public boolean execute(String source, String sql, boolean savepoint) throws Exception
    {
       Savepoint sp = null;
 
@@ -135,14 +163,21 @@ public abstract class JdbcInterface
          savepoint = false;
 
       Statement stmt = conn.createStatement();
-      Config.logger().severe(logentry(sql));
 
       try
       {
          if (savepoint)
             sp = conn.setSavepoint();
 
+         SQLEvent event = new SQLEvent();
+         event.begin();
+
+         long time = System.nanoTime();
          boolean success = stmt.execute(sql);
+         event.record(source,sql,0);
+         time = System.nanoTime() - time;
+         Latency.phase(Latency.EXECUTE,time);
+         SQLTrace.trace(source,sql,null,time,0);
 
          if (savepoint)
             releaseSavePoint(sp,false);
@@ -159,7 +194,7 @@ public abstract class JdbcInterface
    }
 
 
-   public ArrayList<NameValuePair<Object>> executeCall(String sql, ArrayList<BindValue> bindvalues, boolean savepoint) throws Exception
+   public ArrayList<NameValuePair<Object>> executeCall(String source, String sql, ArrayList<BindValue> bindvalues, boolean savepoint) throws Exception
    {
       int returns = 0;
       Savepoint sp = null;
@@ -167,17 +202,17 @@ public abstract class JdbcInterface
       if (conn.getAutoCommit())
          savepoint = false;
 
+      CallableStatement stmt = null;
+
       ArrayList<NameValuePair<Object>> results =
          new ArrayList<NameValuePair<Object>>();
 
-      Config.logger().severe(logentry(sql,bindvalues));
-
       try
       {
          if (savepoint)
             sp = conn.setSavepoint();
 
-         CallableStatement stmt = conn.prepareCall(sql);
+         stmt = prepareCall(sql);
 
          for (int i = 0; i < bindvalues.size(); i++)
          {
@@ -196,7 +231,15 @@ public abstract class JdbcInterface
             }
          }
 
+         SQLEvent event = new SQLEvent();
+         event.begin();
+
+         long time = System.nanoTime();
          stmt.execute();
+         event.record(source,sql,0);
+         time = System.nanoTime() - time;
+         Latency.phase(Latency.EXECUTE,time);
+         SQLTrace.trace(source,sql,bindvalues,time,0);
 
          for (int i = 0; returns > 0 && i < bindvalues.size(); i++)
          {
@@ -225,25 +268,31 @@ public abstract class JdbcInterface
       }
       catch (Throwable t)
       {
-         Config.logger().severe(logentry(sql,bindvalues,t));
+         Config.logger().severe(() -> logentry(sql,bindvalues,t));
 
          if (savepoint)
             releaseSavePoint(sp,true);
 
          throw new Exception(t);
       }
+      finally
+      {
+         if (stmt != null) release(stmt);
+      }
    }
 
 
-   public UpdateResponse executeUpdate(String sql, ArrayList<BindValue> bindvalues, String[] returning, boolean savepoint) throws Exception
+   public UpdateResponse executeUpdate(String source, String sql, ArrayList<BindValue> bindvalues, String[] returning, boolean savepoint) throws Exception
    {
       Savepoint sp = null;
+      SQLEvent event = new SQLEvent();
+      event.begin();
+
+      long time = System.nanoTime();
 
       if (conn.getAutoCommit())
          savepoint = false;
 
-      Config.logger().severe(logentry(sql,bindvalues));
-
       if (returning != null && returning.length > 0)
       {
          try
@@ -252,6 +301,10 @@ public abstract class JdbcInterface
                sp = conn.setSavepoint();
 
             ArrayList<Object[]> data = executeUpdateWithReturnValues(conn,sql,bindvalues,returning);
+            event.record(source,sql,data.size());
+            time = System.nanoTime() - time;
+            Latency.phase(Latency.EXECUTE,time);
+            SQLTrace.trace(source,sql,bindvalues,time,data.size());
 
             if (savepoint)
                releaseSavePoint(sp,false);
@@ -260,7 +313,7 @@ public abstract class JdbcInterface
          }
          catch (Throwable t)
          {
-            Config.logger().severe(logentry(sql,bindvalues,t));
+            Config.logger().severe(() -> logentry(sql,bindvalues,t));
 
             if (savepoint)
                releaseSavePoint(sp,true);
@@ -269,23 +322,23 @@ public abstract class JdbcInterface
          }
       }
 
-      PreparedStatement stmt = conn.prepareStatement(sql);
-
-      for (int i = 0; i < bindvalues.size(); i++)
-      {
-         BindValue bv = bindvalues.get(i);
-         if (bv.untyped()) stmt.setObject(i+1,bv.value());
-         else stmt.setObject(i+1,bv.value(),bv.type());
-      }
+      PreparedStatement stmt = prepare(sql);
 
       try
       {
+         bind(stmt,bindvalues);
+
          synchronized(conn)
          {
             if (savepoint)
                sp = conn.setSavepoint();
 
+            time = System.nanoTime();
             int affected = stmt.executeUpdate();
+            event.record(source,sql,affected);
+            time = System.nanoTime() - time;
+            Latency.phase(Latency.EXECUTE,time);
+            SQLTrace.trace(source,sql,bindvalues,time,affected);
 
             if (savepoint)
                releaseSavePoint(sp,false);
@@ -295,41 +348,164 @@ public abstract class JdbcInterface
       }
       catch (Throwable t)
       {
-         Config.logger().severe(logentry(sql,bindvalues,t));
+         Config.logger().severe(() -> logentry(sql,bindvalues,t));
 
          if (savepoint)
             releaseSavePoint(sp,true);
 
          throw new Exception(t);
       }
+      finally
+      {
+         release(stmt);
+      }
    }
 
 
-   public void executeQuery(Cursor cursor, boolean savepoint)  throws Exception
+   /**
+    * Run the same statement for many rows. Without returning values, rows are sent in batches of batchsize.
+    * Returning values are not supported for batches by all drivers, so then the rows are executed one by one.
+    * Either way, all rows succeed or none. Without a transaction, a transaction is used for the duration,
+    * inside an existing transaction a savepoint is always taken, so earlier rows are rolled back on failure.
+    */
+   public BatchResponse executeBatch(String source, String sql, ArrayList<ArrayList<BindValue>> rows, String[] returning, int batchsize, boolean savepoint) throws Exception
    {
       Savepoint sp = null;
+      PreparedStatement stmt = null;
 
-      if (conn.getAutoCommit())
-         savepoint = false;
+      boolean trx = conn.getAutoCommit();
+      savepoint = !trx;
 
-      Config.logger().info(logentry(cursor));
-      PreparedStatement stmt = conn.prepareStatement(cursor.sql());
+      int[] affected = new int[rows.size()];
+      ArrayList<ArrayList<Object[]>> values = null;
 
-      for (int i = 0; i < cursor.bindvalues().size(); i++)
+      try
       {
-         BindValue bv = cursor.bindvalues().get(i);
-         if (bv.untyped()) stmt.setObject(i+1,bv.value());
-         else stmt.setObject(i+1,bv.value(),bv.type());
+         synchronized(conn)
+         {
+            SQLEvent event = new SQLEvent();
+            event.begin();
+
+            long time = System.nanoTime();
+
+            if (trx)
+               conn.setAutoCommit(false);
+
+            if (savepoint)
+               sp = conn.setSavepoint();
+
+            if (returning != null && returning.length > 0)
+            {
+               values = new ArrayList<ArrayList<Object[]>>();
+
+               for (int r = 0; r < rows.size(); r++)
+               {
+                  ArrayList<Object[]> data = executeUpdateWithReturnValues(conn,sql,rows.get(r),returning);
+                  affected[r] = data.size();
+                  values.add(data);
+               }
+            }
+            else
+            {
+               int done = 0;
+               stmt = prepare(sql);
+
+               for (int r = 0; r < rows.size(); r++)
+               {
+                  bind(stmt,rows.get(r));
+                  stmt.addBatch();
+
+                  if (r == rows.size() - 1 || (r + 1) % batchsize == 0)
+                  {
+                     int[] counts = stmt.executeBatch();
+                     for (int i = 0; i < counts.length; i++) affected[done++] = counts[i];
+                  }
+               }
+            }
+
+            event.record(source,sql,rows.size());
+            time = System.nanoTime() - time;
+            Latency.phase(Latency.EXECUTE,time);
+            SQLTrace.trace(source,sql,rows.get(0),time,rows.size());
+
+            if (savepoint)
+               releaseSavePoint(sp,false);
+
+            if (trx)
+            {
+               conn.commit();
+               conn.setAutoCommit(true);
+            }
+         }
+
+         return(new BatchResponse(affected,values));
       }
+      catch (Throwable t)
+      {
+         Config.logger().severe(() -> logentry(sql,rows.get(0),t));
+
+         if (savepoint)
+            releaseSavePoint(sp,true);
+
+         if (trx)
+         {
+            conn.rollback();
+            conn.setAutoCommit(true);
+         }
+
+         throw new Exception(t);
+      }
+      finally
+      {
+         if (stmt != null)
+         {
+            try {stmt.clearBatch();} catch (Exception e)
+            {Config.logger().log(Level.WARNING,e.toString(),e);}
+
+            release(stmt);
+         }
+      }
+   }
+
+
+   public void executeQuery(Cursor cursor, boolean savepoint)  throws Exception
+   {
+      Savepoint sp = null;
+      boolean stream = stream(cursor);
+
+      if (conn.getAutoCommit() || stream)
+         savepoint = false;
+
+      boolean owned = false;
+      PreparedStatement stmt = prepare(cursor.sql());
 
       try
       {
+         bind(stmt,cursor.bindvalues());
+
+         int fetch = FetchSize.size(cursor);
+         if (stream && fetch <= 0) fetch = cursor.pagesize();
+
+         // Cached statements keeps the fetch size from last use
+         stmt.setFetchSize(fetch > 0 ? fetch : 0);
+
          synchronized(conn)
          {
+            if (stream)
+               startStream(cursor);
+
             if (savepoint)
                sp = conn.setSavepoint();
 
-            cursor.resultset(stmt.executeQuery());
+            SQLEvent event = new SQLEvent();
+            event.begin();
+
+            long time = System.nanoTime();
+            cursor.resultset(stmt.executeQuery(),stmt,cache);
+            owned = true;
+
+            event.record(cursor.source(),cursor.sql(),0);
+            cursor.executed(System.nanoTime()-time);
 
             if (savepoint)
                releaseSavePoint(sp,false);
@@ -337,37 +513,126 @@ public abstract class JdbcInterface
       }
       catch (Throwable t)
       {
-         Config.logger().severe(logentry(cursor,t));
+         Config.logger().severe(() -> logentry(cursor,t));
 
          if (savepoint)
             releaseSavePoint(sp,true);
 
+         if (stream)
+            endStream(cursor);
+
+         // Once handed to the cursor, the cursor gives it back when closed
+         if (!owned) release(stmt);
          throw new Exception(t);
       }
    }
 
 
-   private String logentry(String sql)
+   private void bind(PreparedStatement stmt, ArrayList<BindValue> bindvalues) throws Exception
    {
-      return(logentry(sql,null));
+      for (int i = 0; i < bindvalues.size(); i++)
+      {
+         BindValue bv = bindvalues.get(i);
+
+         if (bv.value() instanceof ArrayValue)
+         {
+            ArrayValue arr = (ArrayValue) bv.value();
+            stmt.setArray(i+1,conn.createArrayOf(arrayType(arr.type),arr.values));
+         }
+
+         else if (bv.untyped()) stmt.setObject(i+1,bv.value());
+         else stmt.setObject(i+1,bv.value(),bv.type());
+      }
    }
 
 
-   private String logentry(Cursor cursor)
+   /** The database name of the element type, when binding arrays */
+   protected String arrayType(int sqlid)
    {
-      return(logentry(cursor,null));
+      return(SQLTypes.getType(sqlid));
    }
 
 
-   private String logentry(Cursor cursor, Throwable t)
+   private PreparedStatement prepare(String sql) throws Exception
    {
-      return(logentry(cursor.sql(),cursor.bindvalues(),t));
+      if (cache == null) return(conn.prepareStatement(sql));
+      return(cache.prepare(sql));
+   }
+
+
+   private CallableStatement prepareCall(String sql) throws Exception
+   {
+      if (cache == null) return(conn.prepareCall(sql));
+      return(cache.prepareCall(sql));
+   }
+
+
+   private void release(PreparedStatement stmt)
+   {
+      if (cache != null)
+      {
+         cache.release(stmt);
+         return;
+      }
+
+      try {stmt.close();} catch (Exception e)
+      {Config.logger().log(Level.WARNING,e.toString(),e);}
+   }
+
+
+   /**
+    * Some drivers, like PostgreSQL, reads the whole result set into memory unless the query
+    * runs inside a transaction. Paged cursors on read connections without a transaction,
+    * are therefore run inside a read-only transaction, that ends when the last cursor is closed.
+    * Connections used for writes are never streamed, since updates would be part of the transaction.
+    */
+   private synchronized boolean stream(Cursor cursor) throws Exception
+   {
+      if (write || !streaming() || cursor.pagesize() <= 0)
+         return(false);
+
+      return(streams.size() > 0 || conn.getAutoCommit());
+   }
+
+
+   private synchronized void startStream(Cursor cursor) throws Exception
+   {
+      if (streams.size() == 0)
+      {
+         conn.setAutoCommit(false);
+         conn.setReadOnly(true);
+      }
+
+      streams.add(cursor);
+      cursor.streaming(this);
    }
 
 
-   private String logentry(String sql, ArrayList<BindValue> bindvalues)
+   /** Called when a streamed cursor is closed */
+   public synchronized void endStream(Cursor cursor) throws Exception
    {
-      return(logentry(sql,bindvalues,null));
+      if (conn == null || !streams.remove(cursor))
+         return;
+
+      if (streams.size() == 0)
+      {
+         conn.commit();
+         conn.setReadOnly(false);
+         conn.setAutoCommit(true);
+      }
+   }
+
+
+   /** Whether result sets must run in a transaction to be fetched in pages */
+   public boolean streaming()
+   {
+      return(false);
+   }
+
+
+   private String logentry(Cursor cursor, Throwable t)
+   {
+      return(logentry(cursor.sql(),cursor.bindvalues(),t));
    }
 
 
@@ -414,6 +679,18 @@ public abstract class JdbcInterface
       }
    }
 
+   public static class BatchResponse
+   {
+      public final int[] affected;
+      public final ArrayList<ArrayList<Object[]>> returning;
+
+      BatchResponse(int[] affected, ArrayList<ArrayList<Object[]>> returning)
+      {
+         this.affected = affected;
+         this.returning = returning;
+      }
+   }
+
    public abstract void releaseProxyUser(Connection conn) throws Exception;
    public abstract void setProxyUser(Connection conn, String username) throws Exception;
    public abstract ArrayList<Object[]> executeUpdateWithReturnValues(Connection conn, String sql, ArrayList<BindValue> bindvalues, String[] returning) throws Exception;
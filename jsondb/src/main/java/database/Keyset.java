@@ -0,0 +1,364 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package database;
+
+import utils.JSONOObject;
+import org.json.JSONArray;
+import java.sql.ResultSet;
+import org.json.JSONObject;
+import java.util.ArrayList;
+import java.sql.ResultSetMetaData;
+
+
+/**
+ * A keyset holds the columns that uniquely orders a cursor, and the key of the last row fetched.
+ * When a cursor is reinstated, the keyset is used to seek directly to the next row,
+ * instead of scanning and skipping all rows already fetched.
+ */
+public class Keyset
+{
+   private final String from;
+   private final String order;
+   private final String filter;
+   private final boolean[] desc;
+   private final boolean[] pkey;
+   private final String[] columns;
+
+   private int[] index = null;
+   private boolean bound = false;
+   private BindValue[] last = null;
+
+   private static final String ASC = "asc";
+   private static final String DESC = "desc";
+   private static final String FROM = "from";
+   private static final String FILTER = "filter";
+   private static final String COLUMNS = "columns";
+   private static final String PRIMARY = "primary";
+
+
+   /**
+    * Build the keyset for a query. The order must be a plain list of columns, optionally followed by asc or desc.
+    * Missing primary key columns are added to make the order unique, so without a primary key the query cannot
+    * be resumed by key. All key columns must be selected. Returns null if the query cannot be resumed by key.
+    */
+   public static Keyset create(String from, String filter, String order, String[] selected, ArrayList<String> primarykey)
+   {
+      ArrayList<Boolean> desc = new ArrayList<Boolean>();
+      ArrayList<String> columns = new ArrayList<String>();
+
+      if (order == null || primarykey.size() == 0)
+         return(null);
+
+      if (order.indexOf('(') >= 0)
+         return(null);
+
+      for(String item : order.split(","))
+      {
+         String[] parts = item.trim().split("\\s+");
+
+         if (parts[0].length() == 0 || parts.length > 2)
+            return(null);
+
+         if (parts.length == 2 && !parts[1].equalsIgnoreCase(ASC) && !parts[1].equalsIgnoreCase(DESC))
+            return(null);
+
+         columns.add(parts[0]);
+         desc.add(parts.length == 2 && parts[1].equalsIgnoreCase(DESC));
+      }
+
+      for(String col : primarykey)
+      {
+         if (indexOf(columns,col) < 0)
+         {
+            columns.add(col);
+            desc.add(false);
+         }
+      }
+
+      for(String col : columns)
+      {
+         boolean found = false;
+
+         for (int i = 0; i < selected.length && !found; i++)
+            found = selected[i].trim().equalsIgnoreCase(col);
+
+         if (!found) return(null);
+      }
+
+      int keys = columns.size();
+      if (keys == 0) return(null);
+
+      boolean[] bdesc = new boolean[keys];
+      boolean[] bpkey = new boolean[keys];
+
+      for (int i = 0; i < keys; i++)
+      {
+         bdesc[i] = desc.get(i);
+         bpkey[i] = indexOf(primarykey,columns.get(i)) >= 0;
+      }
+
+      return(new Keyset(from,filter,columns.toArray(new String[0]),bdesc,bpkey));
+   }
+
+
+   public static Keyset from(JSONObject json) throws Exception
+   {
+      JSONArray cols = json.getJSONArray(COLUMNS);
+
+      int keys = cols.length();
+      String[] columns = new String[keys];
+      boolean[] desc = new boolean[keys];
+      boolean[] pkey = new boolean[keys];
+
+      for (int i = 0; i < keys; i++)
+      {
+         JSONObject col = cols.getJSONObject(i);
+
+         desc[i] = col.getBoolean(DESC);
+         pkey[i] = col.getBoolean(PRIMARY);
+         columns[i] = col.getString("name");
+      }
+
+      String filter = null;
+      if (json.has(FILTER)) filter = json.getString(FILTER);
+
+      return(new Keyset(json.getString(FROM),filter,columns,desc,pkey));
+   }
+
+
+   private Keyset(String from, String filter, String[] columns, boolean[] desc, boolean[] pkey)
+   {
+      this.from = from;
+      this.desc = desc;
+      this.pkey = pkey;
+      this.filter = filter;
+      this.columns = columns;
+
+      String order = "";
+
+      for (int i = 0; i < columns.length; i++)
+      {
+         if (i > 0) order += ",";
+         order += columns[i] + (desc[i] ? " "+DESC : "");
+      }
+
+      this.order = order;
+   }
+
+
+   /** A keyset for a new cursor on the same query */
+   public Keyset copy()
+   {
+      return(new Keyset(from,filter,columns,desc,pkey));
+   }
+
+
+   /** The order by clause, that makes the cursor resumable */
+   public String order()
+   {
+      return(order);
+   }
+
+
+   public boolean bound()
+   {
+      return(bound);
+   }
+
+
+   public boolean usable()
+   {
+      return(index != null);
+   }
+
+
+   /**
+    * Locate the key columns in the result set. Columns outside the primary key must be
+    * declared not null, otherwise rows with nulls could be skipped when seeking.
+    * If the keyset is not usable, any previous key is forgotten.
+    */
+   public boolean bind(ResultSetMetaData meta) throws Exception
+   {
+      int cols = meta.getColumnCount();
+      int[] index = new int[columns.length];
+
+      this.bound = true;
+
+      for (int i = 0; i < columns.length; i++)
+      {
+         index[i] = 0;
+
+         for (int c = 1; c <= cols && index[i] == 0; c++)
+         {
+            if (meta.getColumnName(c).equalsIgnoreCase(columns[i]))
+               index[i] = c;
+         }
+
+         if (index[i] == 0 || (!pkey[i] && meta.isNullable(index[i]) != ResultSetMetaData.columnNoNulls))
+         {
+            this.last = null;
+            return(false);
+         }
+      }
+
+      this.index = index;
+      return(true);
+   }
+
+
+   /** Remember the key of the current row */
+   public void capture(ResultSet rset) throws Exception
+   {
+      ResultSetMetaData meta = rset.getMetaData();
+      BindValue[] last = new BindValue[columns.length];
+
+      for (int i = 0; i < columns.length; i++)
+      {
+         Object value = null;
+         int type = meta.getColumnType(index[i]);
+
+         if (SQLTypes.isDateType(type)) value = rset.getTimestamp(index[i]);
+         else value = rset.getObject(index[i]);
+
+         last[i] = new BindValue("key"+i).type(type).value(value);
+      }
+
+      this.last = last;
+   }
+
+
+   /** Seeking requires a key without nulls */
+   public boolean seekable()
+   {
+      if (last == null)
+         return(false);
+
+      for (int i = 0; i < last.length; i++)
+         if (last[i].value() == null) return(false);
+
+      return(true);
+   }
+
+
+   /**
+    * The query continuing after the last key. The key predicate is expanded as
+    * (k1 > :k1) or (k1 = :k1 and k2 > :k2) ..., since not all databases supports row value comparisons.
+    */
+   public SQLPart seek(ArrayList<BindValue> bindvalues)
+   {
+      String pred = "";
+
+      ArrayList<BindValue> keyvals =
+         new ArrayList<BindValue>();
+
+      for(BindValue bv : bindvalues)
+         keyvals.add(bv.clone());
+
+      for (int i = 0; i < columns.length; i++)
+      {
+         String term = "";
+
+         for (int j = 0; j < i; j++)
+         {
+            term += columns[j]+" = ? and ";
+            keyvals.add(last[j].clone());
+         }
+
+         term += columns[i] + (desc[i] ? " < ?" : " > ?");
+         keyvals.add(last[i].clone());
+
+         if (i > 0) pred += " or ";
+         pred += "(" + term + ")";
+      }
+
+      String sql = from;
+
+      if (filter == null) sql += "\nwhere ("+pred+")";
+      else sql += "\nwhere ("+filter+")\nand ("+pred+")";
+
+      sql += "\norder by "+order;
+      return(new SQLPart(sql,keyvals));
+   }
+
+
+   public JSONObject toJSON()
+   {
+      JSONArray cols = new JSONArray();
+      JSONOObject json = new JSONOObject();
+
+      json.put(FROM,from);
+      if (filter != null) json.put(FILTER,filter);
+
+      for (int i = 0; i < columns.length; i++)
+      {
+         JSONOObject col = new JSONOObject();
+
+         col.put("name",columns[i]);
+         col.put(DESC,desc[i]);
+         col.put(PRIMARY,pkey[i]);
+
+         cols.put(col);
+      }
+
+      json.put(COLUMNS,cols);
+      return(json);
+   }
+
+
+   /**
+    * The key of the last row fetched, persisted apart from the definition
+    * since it changes with every fetch.
+    */
+   public byte[] last()
+   {
+      if (last == null) return(null);
+
+      JSONArray keys = new JSONArray();
+      for(BindValue bv : last) keys.put(bv.toJSON());
+
+      return(keys.toString().getBytes());
+   }
+
+
+   public void last(JSONArray keys) throws Exception
+   {
+      if (keys.length() != columns.length)
+         return;
+
+      this.last = new BindValue[keys.length()];
+
+      for (int i = 0; i < keys.length(); i++)
+         this.last[i] = BindValue.from(keys.getJSONObject(i));
+   }
+
+
+   private static int indexOf(ArrayList<String> columns, String column)
+   {
+      for (int i = 0; i < columns.size(); i++)
+         if (columns.get(i).equalsIgnoreCase(column)) return(i);
+
+      return(-1);
+   }
+}
@@ -0,0 +1,129 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package database;
+
+import jsondb.Config;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jsondb.Config.DataBaseConfig;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Traces executed statements as one compact line, instead of logging sql and bind values.
+ * A statement is traced if its source is sampled, or if it takes longer than the slow threshold.
+ * The sql itself is written at warning level the first time a hash is traced, so trace lines can be
+ * matched by hash. Warnings are never dropped by the log queue, and the mapping is written again
+ * if the hash is traced after the known hashes have been cleared.
+ */
+public class SQLTrace
+{
+   private static final int KNOWN = 4096;
+
+   private static final ConcurrentHashMap<String,Boolean> known =
+      new ConcurrentHashMap<String,Boolean>();
+
+
+   /** Decide if statements from the source should be traced */
+   public static boolean sample(String source)
+   {
+      DataBaseConfig conf = Config.dbconfig();
+
+      double rate = conf.tracesample(source);
+      if (rate <= 0) return(false);
+      if (rate >= 1) return(true);
+
+      return(ThreadLocalRandom.current().nextDouble() < rate);
+   }
+
+
+   /** Trace a statement, if sampled or slow. Times are in nanoseconds */
+   public static void trace(String source, String sql, ArrayList<BindValue> bindvalues, long exec, long fetch, int rows, boolean sampled)
+   {
+      Logger logger = Config.logger();
+      int slow = Config.dbconfig().traceslow();
+      boolean isslow = slow > 0 && (exec + fetch) / 1000000 >= slow;
+
+      if (!sampled && !isslow) return;
+
+      Level level = isslow ? Level.WARNING : Level.INFO;
+      if (!logger.isLoggable(level)) return;
+
+      String hash = hash(sql);
+
+      if (known.putIfAbsent(hash,true) == null)
+      {
+         if (known.size() > KNOWN) {known.clear(); known.put(hash,true);}
+         logger.log(Level.WARNING,"sql hash="+hash+" sql="+sql.replaceAll("\\s+"," ").trim());
+      }
+
+      logger.log(level,entry(source,hash,bindvalues,exec,fetch,rows,isslow));
+   }
+
+
+   /** Trace a statement, deciding on the sample here */
+   public static void trace(String source, String sql, ArrayList<BindValue> bindvalues, long exec, int rows)
+   {
+      boolean sampled = sample(source);
+      trace(source,sql,bindvalues,exec,0,rows,sampled);
+   }
+
+
+   private static String entry(String source, String hash, ArrayList<BindValue> bindvalues, long exec, long fetch, int rows, boolean slow)
+   {
+      StringBuilder entry = new StringBuilder(96);
+
+      entry.append(slow ? "slow sql" : "sql");
+      entry.append(" source=").append(source);
+      entry.append(" hash=").append(hash);
+      entry.append(" binds=").append(bindvalues == null ? 0 : bindvalues.size());
+      entry.append(" exec=").append(millis(exec)).append("ms");
+      entry.append(" fetch=").append(millis(fetch)).append("ms");
+      entry.append(" rows=").append(rows);
+
+      return(entry.toString());
+   }
+
+
+   /** Short hash identifying the sql in traces */
+   public static String hash(String sql)
+   {
+      String hash = Integer.toHexString(sql.hashCode());
+      while (hash.length() < 8) hash = "0" + hash;
+      return(hash);
+   }
+
+
+   private static String millis(long nano)
+   {
+      long micro = nano / 1000;
+      long frac = micro % 1000;
+
+      String dec = frac < 10 ? "00" + frac : frac < 100 ? "0" + frac : "" + frac;
+      return(micro / 1000 + "." + dec);
+   }
+}
@@ -0,0 +1,233 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package database;
+
+import jsondb.Config;
+import java.util.Map;
+import java.sql.ResultSet;
+import java.sql.Connection;
+import utils.JSONOObject;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.IdentityHashMap;
+import java.util.logging.Level;
+import java.sql.PreparedStatement;
+import java.sql.CallableStatement;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Prepared statements kept on each physical connection, keyed by sql and result set type.
+ * A statement is checked out while in use, and handed back when done, so two cursors
+ * with the same sql never shares a statement. The least recently used statements are closed
+ * when the cache is full. Caches for connections closed by the pool are dropped when a new connection is seen.
+ */
+public class StatementCache
+{
+   private final int size;
+   private final Connection conn;
+   private final LinkedHashMap<String,PreparedStatement> idle;
+   private final IdentityHashMap<PreparedStatement,String> busy;
+
+   private static final AtomicLong hits = new AtomicLong();
+   private static final AtomicLong misses = new AtomicLong();
+   private static final AtomicLong evicted = new AtomicLong();
+
+   private static final IdentityHashMap<Connection,StatementCache> caches =
+      new IdentityHashMap<Connection,StatementCache>();
+
+
+   /** The cache for the physical connection behind a pooled connection */
+   public static StatementCache get(Connection conn) throws Exception
+   {
+      int size = Config.dbconfig().stmtcache();
+      if (size <= 0) return(null);
+
+      Connection phys = conn;
+      if (conn.isWrapperFor(Connection.class)) phys = conn.unwrap(Connection.class);
+
+      synchronized(caches)
+      {
+         StatementCache cache = caches.get(phys);
+
+         if (cache == null)
+         {
+            // A new physical connection, most likely replacing one closed by the pool
+            purge();
+
+            cache = new StatementCache(phys,size);
+            caches.put(phys,cache);
+         }
+
+         return(cache);
+      }
+   }
+
+
+   public static JSONOObject stats()
+   {
+      int cached = 0;
+      JSONOObject stats = new JSONOObject();
+
+      synchronized(caches)
+      {
+         purge();
+
+         for(StatementCache cache : caches.values())
+            cached += cache.size();
+
+         stats.put("connections",caches.size());
+      }
+
+      stats.put("statements",cached);
+      stats.put("hits",hits.get());
+      stats.put("misses",misses.get());
+      stats.put("evicted",evicted.get());
+
+      return(stats);
+   }
+
+
+   /** Drop the caches of physical connections that the pool has closed */
+   private static void purge()
+   {
+      Iterator<StatementCache> entries = caches.values().iterator();
+
+      while (entries.hasNext())
+      {
+         StatementCache cache = entries.next();
+
+         if (cache.closed())
+         {
+            cache.clear();
+            entries.remove();
+         }
+      }
+   }
+
+
+   private StatementCache(Connection conn, int size)
+   {
+      this.conn = conn;
+      this.size = size;
+      this.busy = new IdentityHashMap<PreparedStatement,String>();
+      this.idle = new LinkedHashMap<String,PreparedStatement>(16,0.75f,true)
+      {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String,PreparedStatement> eldest)
+         {
+            if (size() <= StatementCache.this.size) return(false);
+
+            evicted.incrementAndGet();
+            close(eldest.getValue());
+            return(true);
+         }
+      };
+   }
+
+
+   public PreparedStatement prepare(String sql) throws Exception
+   {
+      return(checkout(sql,ResultSet.TYPE_FORWARD_ONLY,false));
+   }
+
+
+   public CallableStatement prepareCall(String sql) throws Exception
+   {
+      return((CallableStatement) checkout(sql,ResultSet.TYPE_FORWARD_ONLY,true));
+   }
+
+
+   /** Hand back a statement. Statements not from this cache, or not wanted anymore, are closed */
+   public synchronized void release(PreparedStatement stmt)
+   {
+      String key = busy.remove(stmt);
+
+      if (key == null || idle.containsKey(key))
+      {
+         close(stmt);
+         return;
+      }
+
+      idle.put(key,stmt);
+   }
+
+
+   /** Close all idle statements, and forget the busy ones so they are closed when released */
+   public synchronized void clear()
+   {
+      for(PreparedStatement stmt : idle.values())
+         close(stmt);
+
+      idle.clear();
+      busy.clear();
+   }
+
+
+   private boolean closed()
+   {
+      try {return(conn.isClosed());}
+      catch (Exception e) {return(true);}
+   }
+
+
+   public synchronized int size()
+   {
+      return(idle.size() + busy.size());
+   }
+
+
+   private synchronized PreparedStatement checkout(String sql, int type, boolean call) throws Exception
+   {
+      String key = (call ? "c" : "p") + type + ":" + sql;
+      PreparedStatement stmt = idle.remove(key);
+
+      if (stmt != null && stmt.isClosed())
+         stmt = null;
+
+      if (stmt != null)
+      {
+         hits.incrementAndGet();
+         stmt.clearParameters();
+      }
+      else
+      {
+         misses.incrementAndGet();
+
+         if (call) stmt = conn.prepareCall(sql,type,ResultSet.CONCUR_READ_ONLY);
+         else stmt = conn.prepareStatement(sql,type,ResultSet.CONCUR_READ_ONLY);
+      }
+
+      busy.put(stmt,key);
+      return(stmt);
+   }
+
+
+   private static void close(PreparedStatement stmt)
+   {
+      try {stmt.close();} catch (Exception e)
+      {Config.logger().log(Level.WARNING,e.toString(),e);}
+   }
+}
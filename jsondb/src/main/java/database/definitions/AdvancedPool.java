@@ -34,4 +34,10 @@ public interface AdvancedPool
    void freeConnection(Connection conn) throws Exception;
    Connection getConnection(boolean write) throws Exception;
    boolean authenticate(String username, String password) throws Exception;
+
+   /** Active, idle and waiting connections, null if not known */
+   default int[] usage(boolean write)
+   {
+      return(null);
+   }
 }
\ No newline at end of file
@@ -46,6 +46,12 @@ public enum DatabaseType
       return(impl.getConstructor(AdvancedPool.class).newInstance(pool));
    }
 
+   /** Lists can be bound as one array parameter */
+   public boolean arrays()
+   {
+      return(this == PostgreSQL);
+   }
+
    public static DatabaseType getType(String name)
    {
       switch(name.toLowerCase())
@@ -117,6 +117,9 @@ public class Oracle extends JdbcInterface
          data.add(row);
       }
 
+      rset.close();
+      stmt.close();
+
       return(data);
    }
 
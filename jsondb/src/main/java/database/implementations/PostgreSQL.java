@@ -21,7 +21,9 @@
 
 package database.implementations;
 
+import jsondb.Config;
 import database.BindValue;
+import java.sql.Types;
 import java.sql.ResultSet;
 import java.sql.Connection;
 import java.util.ArrayList;
@@ -48,6 +50,39 @@ public class PostgreSQL extends JdbcInterface
    {
    }
 
+   @Override
+   public boolean streaming()
+   {
+      return(Config.dbconfig().streaming());
+   }
+
+   @Override
+   protected String arrayType(int sqlid)
+   {
+      switch(sqlid)
+      {
+         case Types.BIT :
+         case Types.BOOLEAN : return("bool");
+
+         case Types.SMALLINT : return("int2");
+         case Types.INTEGER : return("int4");
+         case Types.BIGINT : return("int8");
+
+         case Types.REAL : return("float4");
+         case Types.FLOAT :
+         case Types.DOUBLE : return("float8");
+
+         case Types.NUMERIC :
+         case Types.DECIMAL : return("numeric");
+
+         case Types.DATE : return("date");
+         case Types.TIMESTAMP : return("timestamp");
+         case Types.TIMESTAMP_WITH_TIMEZONE : return("timestamptz");
+
+         default: return("varchar");
+      }
+   }
+
 
    @Override
    public ArrayList<Object[]> executeUpdateWithReturnValues(Connection conn, String sql, ArrayList<BindValue> bindvalues, String[] returning) throws Exception
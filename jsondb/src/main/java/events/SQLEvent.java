@@ -0,0 +1,63 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package events;
+
+import jdk.jfr.Name;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Category;
+import database.SQLTrace;
+import jdk.jfr.Description;
+
+
+@Name("jsondb.SQL")
+@Label("JsonWebDB SQL")
+@Category({"JsonWebDB"})
+@Description("A statement executed through JDBC")
+public class SQLEvent extends Event
+{
+   @Label("Source")
+   public String source;
+
+   @Label("SQL Hash")
+   @Description("Same hash as in the sql trace")
+   public String hash;
+
+   @Label("Rows")
+   public int rows;
+
+
+   public void record(String source, String sql, int rows)
+   {
+      end();
+      if (!shouldCommit()) return;
+
+      this.rows = rows;
+      this.source = source;
+      this.hash = SQLTrace.hash(sql);
+
+      commit();
+   }
+}
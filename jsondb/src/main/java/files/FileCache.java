@@ -28,6 +28,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.ByteArrayOutputStream;
 import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.ConcurrentHashMap;
 
 
@@ -36,6 +37,9 @@ public class FileCache
    private static ConcurrentHashMap<String,CacheEntry> cache =
       new ConcurrentHashMap<String,CacheEntry>();
 
+   private static final AtomicLong hits = new AtomicLong();
+   private static final AtomicLong misses = new AtomicLong();
+
 
    public static CacheEntry get(String path) throws Exception
    {
@@ -46,11 +50,15 @@ public class FileCache
          if (!centry.ensure())
          {
             cache.remove(path);
+            misses.incrementAndGet();
             return(null);
          }
+
+         hits.incrementAndGet();
       }
       else
       {
+         misses.incrementAndGet();
          File file = open(path);
          if (!file.exists()) return(null);
 
@@ -69,6 +77,16 @@ public class FileCache
       return(centry);
    }
 
+   public static long hits()
+   {
+      return(hits.get());
+   }
+
+   public static long misses()
+   {
+      return(misses.get());
+   }
+
    private static File open(String path)
    {
       return(new File(FileConfig.root() + path));
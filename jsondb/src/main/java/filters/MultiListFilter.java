@@ -24,10 +24,15 @@ SOFTWARE.
 
 package filters;
 
+import jsondb.Config;
+import java.sql.Types;
 import database.SQLPart;
 import messages.Messages;
+import database.DataType;
+import database.SQLTypes;
 import database.BindValue;
 import org.json.JSONArray;
+import database.ArrayValue;
 import org.json.JSONObject;
 import java.util.ArrayList;
 import jsondb.requests.Table;
@@ -44,6 +49,15 @@ public class MultiListFilter extends Filter
    private final SQLPart subq;
    private static final String TABLE = Table.class.getSimpleName();
 
+   /** Oracle allows at most 1000 expressions in a list */
+   private static final int MAXLIST = 1000;
+
+   private int[] types = null;
+   private String sql = null;
+   private boolean array = false;
+   private boolean inline = false;
+   private Object[][] list = null;
+
 
    public MultiListFilter(Context context, JSONObject definition) throws Exception
    {
@@ -74,84 +88,291 @@ public class MultiListFilter extends Filter
             throw new Exception(Messages.get("UNKNOWN_FILTER",flt));
       }
 
+      if (column != null)
+         columns = new String[] {column};
+
       if (this.values != null && values.length > 0) subq = null;
       else subq = Table.getSubQuery(context,definition.getJSONObject(TABLE));
+
+      if (subq == null) prepare();
    }
 
-   @Override
-   public String sql()
+
+   /**
+    * The part of a list that decides the sql, for requests that only binds the values.
+    * Lists bound as an array always gives the same sql, otherwise the padded size is used.
+    * Returns null if the values are inlined.
+    */
+   public static String shape(Context context, JSONObject definition)
    {
-      if (column != null)
-         columns = new String[] {column};
+      JSONArray values = definition.optJSONArray(VALUES);
 
-      String sql = "(";
+      int rows = values.length();
+      boolean tuples = rows > 0 && values.get(0) instanceof JSONArray;
 
-      for (int i = 0; i < columns.length; i++)
+      String[] columns = new String[] {definition.optString(COLUMN)};
+
+      if (definition.has(COLUMNS))
       {
-         if (i == 0) sql += columns[i];
-         else sql += ", " + columns[i];
+         JSONArray cols = definition.optJSONArray(COLUMNS);
+         if (cols == null) return(null);
+
+         columns = new String[cols.length()];
+         for (int j = 0; j < columns.length; j++) columns[j] = cols.optString(j);
       }
 
-      sql += ") "+opr+" (";
+      for (int j = 0; j < columns.length; j++)
+      {
+         Object[] column = new Object[rows];
+
+         for (int i = 0; i < rows; i++)
+         {
+            if (!tuples) column[i] = values.get(i);
+            else column[i] = values.getJSONArray(i).opt(j);
+         }
+
+         if (inline(context,columns[j],column))
+            return(null);
+      }
+
+      if (!tuples && arrays())
+         return("array");
+
+      String shape = "";
+
+      for (int b = 0; b < rows; b += MAXLIST)
+         shape += (b > 0 ? "+" : "") + bucket(Math.min(MAXLIST,rows-b));
+
+      if (tuples) shape += "x"+values.getJSONArray(0).length();
+      return(shape);
+   }
+
+
+   @Override
+   public String sql()
+   {
+      if (subq != null)
+         return("("+columnlist()+") "+opr+" ("+subq.snippet()+")");
+
+      if (sql == null)
+         sql = build();
+
+      return(sql);
+   }
 
+   @Override
+   public ArrayList<BindValue> bindvalues() throws Exception
+   {
       if (subq != null)
+         return(subq.bindValues());
+
+      if (bindvalues.size() == 0 && !inline)
+         bind();
+
+      return(this.bindvalues);
+   }
+
+
+   private String columnlist()
+   {
+      String list = "";
+
+      for (int i = 0; i < columns.length; i++)
       {
-         sql += subq.snippet();
+         if (i == 0) list += columns[i];
+         else list += ", " + columns[i];
       }
-      else
+
+      return(list);
+   }
+
+
+   /**
+    * The values are bound, unless they must be inlined, see inline(). On databases that
+    * supports it, a single column list is bound as one array. Otherwise the list is padded
+    * to a power of 2, so that the number of distinct statements stays small. The sql is only
+    * built when asked for, a cached statement only needs the values.
+    */
+   private void prepare() throws Exception
+   {
+      boolean tuples = values[0] instanceof JSONArray;
+      list = new Object[values.length][];
+
+      for (int i = 0; i < values.length; i++)
       {
-         if (values[0] instanceof JSONArray)
+         if (!tuples)
          {
-            Object[][] list = new Object[values.length][];
+            list[i] = new Object[] {values[i]};
+         }
+         else
+         {
+            JSONArray vals = (JSONArray) values[i];
+
+            if (vals.length() != columns.length)
+               throw new Exception(Messages.get("LIST_VALUE_MISMATCH",columnlist()));
 
-            for (int i = 0; i < values.length; i++)
+            list[i] = new Object[vals.length()];
+
+            for (int j = 0; j < list[i].length; j++)
             {
-               JSONArray vals = (JSONArray) values[i];
-               list[i] = new Object[vals.length()];
-               for (int j = 0; j < list.length; j++)
-                  list[i][j] = vals.get(j);
+               list[i][j] = vals.get(j);
+               if (list[i][j] == JSONObject.NULL) list[i][j] = null;
             }
+         }
+      }
 
-            boolean quote = (list[0][0] instanceof String);
+      types = new int[columns.length];
 
-            for (int i = 0; i < values.length; i++)
-            {
-               if (i > 0) sql += ",";
+      for (int j = 0; j < types.length; j++)
+      {
+         Object[] column = new Object[list.length];
+         for (int i = 0; i < list.length; i++) column[i] = list[i][j];
+         types[j] = datatype(columns[j],column);
+         if (inline(context,columns[j],column)) inline = true;
+      }
 
-               sql += "(";
+      array = !tuples && !inline && arrays();
+   }
 
-               for (int j = 0; j < list[i].length; j++)
-               {
-                  if (j > 0) sql += ",";
-                  if (!quote) sql += list[i][j];
-                  else sql += "'" + list[i][j] + "'";
-               }
 
-               sql += ")";
-            }
-         }
-         else
+   private void bind() throws Exception
+   {
+      if (array)
+      {
+         BindValue bv = new BindValue(columns[0]).type(Types.ARRAY);
+         bindvalues.add(bv.value(new ArrayValue(types[0],values.clone())));
+         return;
+      }
+
+      for (int b = 0; b < list.length; b += MAXLIST)
+      {
+         int rows = Math.min(MAXLIST,list.length-b);
+         int size = bucket(rows);
+
+         for (int i = 0; i < size; i++)
          {
-            boolean quote = (values[0] instanceof String);
+            // Pad with the last value, this does not change the result
+            Object[] row = list[b + Math.min(i,rows-1)];
 
-            for (int i = 0; i < values.length; i++)
+            for (int j = 0; j < columns.length; j++)
             {
-               if (i > 0) sql += ",";
-               if (!quote) sql += values[i];
-               else sql += "'" + values[i] + "'";
+               BindValue bv = new BindValue(columns[j]).type(types[j]);
+               bindvalues.add(bv.value(row[j]));
             }
          }
       }
+   }
+
+
+   private String build()
+   {
+      if (array)
+      {
+         if (opr.equals("in")) return(columns[0]+" = any(?)");
+         else return(columns[0]+" <> all(?)");
+      }
 
-      sql += ")";
+      String join = opr.equals("in") ? " or " : " and ";
+      String sql = "";
+
+      for (int b = 0; b < list.length; b += MAXLIST)
+      {
+         int rows = Math.min(MAXLIST,list.length-b);
+         int size = inline ? rows : bucket(rows);
+
+         if (b > 0) sql += join;
+         sql += "("+columnlist()+") "+opr+" (";
+
+         for (int i = 0; i < size; i++)
+         {
+            Object[] row = list[b + Math.min(i,rows-1)];
+
+            if (i > 0) sql += ",";
+            sql += slot(row);
+         }
+
+         sql += ")";
+      }
+
+      if (list.length > MAXLIST)
+         sql = "(" + sql + ")";
 
       return(sql);
    }
 
-   @Override
-   public ArrayList<BindValue> bindvalues()
+
+   private String slot(Object[] row)
+   {
+      String slot = "";
+
+      for (int j = 0; j < row.length; j++)
+      {
+         if (j > 0) slot += ",";
+         slot += inline ? literal(row[j]) : "?";
+      }
+
+      if (row.length > 1) slot = "("+slot+")";
+      return(slot);
+   }
+
+
+   private static String literal(Object value)
+   {
+      if (value == null || value == JSONObject.NULL) return("null");
+      if (value instanceof Number || value instanceof Boolean) return(value.toString());
+      return("'"+value.toString().replace("'","''")+"'");
+   }
+
+
+   /**
+    * PostgreSQL does not convert a bound varchar to the type of the column. Without the type of the
+    * column, from the source or the database, strings are inlined and left to the database to convert.
+    */
+   private static boolean inline(Context context, String column, Object[] values)
+   {
+      if (!arrays() || type(context,column) != null)
+         return(false);
+
+      for (int i = 0; i < values.length; i++)
+         if (values[i] instanceof String) return(true);
+
+      return(false);
+   }
+
+
+   private static Integer type(Context context, String column)
+   {
+      DataType coldef = context.datatypes.get(column.toLowerCase());
+      return(coldef == null ? null : coldef.sqlid);
+   }
+
+
+   private int datatype(String column, Object[] values)
+   {
+      Integer type = type(context,column);
+      if (type != null) return(type);
+
+      for (int i = 0; i < values.length; i++)
+      {
+         if (values[i] != null && values[i] != JSONObject.NULL)
+            return(SQLTypes.guessType(values[i]));
+      }
+
+      return(Types.VARCHAR);
+   }
+
+
+   private static int bucket(int rows)
+   {
+      int size = 1;
+      while (size < rows) size *= 2;
+      return(Math.min(size,MAXLIST));
+   }
+
+
+   private static boolean arrays()
    {
-      if (subq == null) return(this.bindvalues);
-      return(subq.bindValues());
+      if (Config.dbconfig() == null) return(false);
+      return(Config.dbconfig().type().arrays());
    }
 }
\ No newline at end of file
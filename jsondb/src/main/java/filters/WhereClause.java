@@ -35,6 +35,7 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 import java.util.ArrayList;
 import sources.TableSource;
+import sources.TableSource.CustomFilter;
 import filters.definitions.Filter;
 
 
@@ -46,7 +47,11 @@ public class WhereClause
 
    private static final String FILTER = "filter";
    private static final String CUSTOM = "custom";
+   private static final String COLUMN = "column";
+   private static final String VALUES = "values";
    private static final String FILTERS = "filters";
+   private static final String COLUMNS = "columns";
+   private static final String SUBQUERY = "Table";
 
 
    public WhereClause(Context context, JSONObject definition) throws Exception
@@ -96,6 +101,151 @@ public class WhereClause
    }
 
 
+   /**
+    * The structure of the filters without the values. Filters with the same shape produces
+    * the same sql, and only differs in the values bound. Returns null if the sql also depends on
+    * the values, i.e. subqueries and custom filters with substitutions.
+    */
+   public static String shape(Context context, JSONObject definition)
+   {
+      JSONArray filters = definition.optJSONArray(FILTERS);
+      if (filters == null) return("");
+      return(shape(context,filters));
+   }
+
+
+   /**
+    * The values from the filters, in the same order as when the where-clause is built.
+    * Used with sql already built from filters with the same shape.
+    */
+   public static ArrayList<BindValue> bindvalues(Context context, JSONObject definition) throws Exception
+   {
+      ArrayList<BindValue> bindvalues = new ArrayList<BindValue>();
+
+      JSONArray filters = definition.optJSONArray(FILTERS);
+      if (filters != null) bindvalues(context,filters,bindvalues);
+
+      return(bindvalues);
+   }
+
+
+   private static String shape(Context context, JSONArray filters)
+   {
+      String shape = "[";
+
+      for (int i = 0; i < filters.length(); i++)
+      {
+         JSONObject filter = filters.optJSONObject(i);
+         if (filter == null) return(null);
+
+         String[] attr = JSONObject.getNames(filter);
+         if (attr == null) return(null);
+
+         String part = null;
+         String type = attr[0].toLowerCase();
+
+         if (type.equals("and") || type.equals("or"))
+         {
+            Object fltdef = filter.get(attr[0]);
+
+            if (fltdef instanceof JSONArray) part = shape(context,(JSONArray) fltdef);
+            else if (fltdef instanceof JSONObject) part = leaf(context,(JSONObject) fltdef);
+
+            if (part != null) part = type + part;
+         }
+         else
+         {
+            part = leaf(context,filter);
+         }
+
+         if (part == null) return(null);
+         shape += (i > 0 ? "," : "") + part;
+      }
+
+      return(shape+"]");
+   }
+
+
+   private static String leaf(Context context, JSONObject filter)
+   {
+      if (filter.has(SUBQUERY))
+         return(null);
+
+      String list = null;
+      String shape = "{";
+
+      if (filter.has(CUSTOM))
+      {
+         String name = filter.optString(CUSTOM).toLowerCase();
+
+         CustomFilter custflt = null;
+         if (context.source.filters != null) custflt = context.source.filters.get(name);
+
+         if (custflt == null) return(null);
+
+         for(BindValue bv : custflt.filter.bindValues())
+            if (bv.ampersand()) return(null);
+
+         shape += JSONObject.quote(CUSTOM+":"+name);
+      }
+      else
+      {
+         String name = filter.optString(FILTER);
+         while (name.indexOf("  ") >= 0) name = name.replaceAll("  "," ");
+
+         name = name.toLowerCase();
+         shape += JSONObject.quote(FILTER+":"+name);
+
+         if (name.equals("in") || name.equals("not in"))
+            list = name;
+      }
+
+      if (filter.has(COLUMN))
+         shape += ","+JSONObject.quote(filter.optString(COLUMN));
+
+      if (filter.has(COLUMNS))
+         shape += ","+filter.optJSONArray(COLUMNS);
+
+      if (filter.has(VALUES))
+      {
+         JSONArray values = filter.optJSONArray(VALUES);
+         if (values == null) return(null);
+
+         // Lists are padded or bound as arrays, so their exact length does not change the sql
+         if (list != null)
+         {
+            String size = MultiListFilter.shape(context,filter);
+            return(size == null ? null : shape+",values:"+size+"}");
+         }
+
+         shape += ",values:"+values.length();
+
+         if (values.length() > 0 && values.get(0) instanceof JSONArray)
+            shape += "x"+values.getJSONArray(0).length();
+      }
+
+      return(shape+"}");
+   }
+
+
+   private static void bindvalues(Context context, JSONArray filters, ArrayList<BindValue> bindvalues) throws Exception
+   {
+      for (int i = 0; i < filters.length(); i++)
+      {
+         JSONObject filter = filters.getJSONObject(i);
+
+         String[] attr = JSONObject.getNames(filter);
+         Object fltdef = filter;
+
+         if (attr[0].equalsIgnoreCase("and") || attr[0].equalsIgnoreCase("or"))
+            fltdef = filter.get(attr[0]);
+
+         if (fltdef instanceof JSONArray) bindvalues(context,(JSONArray) fltdef,bindvalues);
+         else bindvalues.addAll(Clause.getFilter(context,(JSONObject) fltdef).bindvalues());
+      }
+   }
+
+
    private SQLPart build(Context context) throws Exception
    {
       this.clause = new Clause(context,filters);
@@ -52,10 +52,10 @@ import filters.WhereClause.Context;
 public abstract class Filter
 {
    private final static String VALUE = "value";
-   private final static String COLUMN = "column";
+   protected final static String COLUMN = "column";
    private final static String CUSTOM = "custom";
-   private final static String VALUES = "values";
-   private final static String COLUMNS = "columns";
+   protected final static String VALUES = "values";
+   protected final static String COLUMNS = "columns";
 
    public static void list()
    {
@@ -81,36 +81,42 @@ public abstract class Filter
    }
 
 
-   private static final HashMap<String,Class<?>> classes =
-      new HashMap<String,Class<?>>()
+   private interface Factory
+   {
+      Filter create(Context context, JSONObject definition) throws Exception;
+   }
+
+
+   private static final HashMap<String,Factory> classes =
+      new HashMap<String,Factory>()
       {{
-         put("like",Like.class);
-         put("not like",NotLike.class);
+         put("like",Like::new);
+         put("not like",NotLike::new);
 
-         put("=",Equals.class);
-         put("!=",NotEquals.class);
+         put("=",Equals::new);
+         put("!=",NotEquals::new);
 
-         put("<",LessThan.class);
-         put("<=",LessThanEquals.class);
+         put("<",LessThan::new);
+         put("<=",LessThanEquals::new);
 
-         put(">",GreaterThan.class);
-         put(">=",GreaterThanEquals.class);
+         put(">",GreaterThan::new);
+         put(">=",GreaterThanEquals::new);
 
-         put("is null",IsNull.class);
-         put("is not null",IsNotNull.class);
+         put("is null",IsNull::new);
+         put("is not null",IsNotNull::new);
 
-         put("between",Between.class);
-         put("not between",NotBetween.class);
+         put("between",Between::new);
+         put("not between",NotBetween::new);
 
-         put("in",MultiListFilter.class);
-         put("not in",MultiListFilter.class);
+         put("in",MultiListFilter::new);
+         put("not in",MultiListFilter::new);
 
-         put("exists",MultiListFilter.class);
-         put("not exists",MultiListFilter.class);
+         put("exists",MultiListFilter::new);
+         put("not exists",MultiListFilter::new);
 
-         put("daterange",DateRange.class);
+         put("daterange",DateRange::new);
 
-         put("custom",Custom.class);
+         put("custom",Custom::new);
       }};
 
 
@@ -180,15 +186,11 @@ public abstract class Filter
       while (name.indexOf("  ") >= 0)
          name = name.replaceAll("  "," ");
 
-      Class<?> clazz = classes.get(name);
+      Factory factory = classes.get(name);
 
-      try
-      {
-         return((T) clazz.getConstructor(Context.class,JSONObject.class).newInstance(context,definition));
-      }
-      catch (Exception e)
-      {
+      if (factory == null)
          throw new Exception(Messages.get("UNKNOWN_FILTER",name));
-      }
+
+      return((T) factory.create(context,definition));
    }
 }
\ No newline at end of file
@@ -24,16 +24,24 @@ SOFTWARE.
 
 package http;
 
+import state.State;
 import jsondb.Config;
 import jsondb.JsonDB;
+import jsondb.Latency;
 import utils.GMTDate;
+import jsondb.Session;
 import java.util.Date;
 import java.util.Base64;
 import java.time.Instant;
 import utils.JSONOObject;
 import messages.Messages;
+import org.json.JSONArray;
 import java.time.Duration;
+import database.FetchSize;
+import state.StatePersistency;
 import java.util.logging.Level;
+import database.StatementCache;
+import jsondb.requests.SelectTemplate;
 
 
 public class Admin
@@ -89,6 +97,15 @@ public class Admin
          return(response);
       }
 
+      if (path.equals(HTTPConfig.admin()+"/metrics"))
+         return(new AdminResponse(OpenMetrics.format()).setHeader("Content-Type",OpenMetrics.TYPE));
+
+      if (path.equals(HTTPConfig.admin()+"/latency/reset"))
+      {
+         Latency.reset();
+         return(new AdminResponse(200,"Latency histograms reset"));
+      }
+
       return(status());
    }
 
@@ -122,11 +139,41 @@ public class Admin
       stats.put("file-requests",JsonDB.getFileRequests());
       stats.put("jsondb-requests",JsonDB.getJsonRequests());
       stats.put("server-endpoint",server);
+      stats.put("state-touches",StatePersistency.getTouchStats());
+      stats.put("concurrent-reads",concurrency());
+      stats.put("fetch-sizes",FetchSize.stats());
+      stats.put("statement-cache",StatementCache.stats());
+      stats.put("select-templates",SelectTemplate.stats());
+      stats.put("compression",Compression.stats());
+      stats.put("latency",Latency.stats());
 
       return(new AdminResponse(stats.toString(2)).setHeader("Last-Modified",GMTDate.format()));
    }
 
 
+   private static JSONArray concurrency()
+   {
+      JSONArray sessions = new JSONArray();
+
+      for(Session session : State.sessions())
+      {
+         if (session.peakConcurrentReads() < 2 && session.borrowedConnections() == 0)
+            continue;
+
+         JSONOObject entry = new JSONOObject();
+
+         entry.put("session",session.guid());
+         entry.put("running",session.concurrentReads());
+         entry.put("peak",session.peakConcurrentReads());
+         entry.put("connections",session.borrowedConnections());
+
+         sessions.put(entry);
+      }
+
+      return(sessions);
+   }
+
+
    private static class DelayedStop extends Thread
    {
       DelayedStop()
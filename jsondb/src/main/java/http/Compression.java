@@ -0,0 +1,287 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package http;
+
+import jsondb.Config;
+import utils.JSONOObject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Compresses a response, if the client accepts gzip or deflate. The response is held back
+ * until it reaches the minimum size, so that the headers can tell whether it is compressed.
+ * Small responses are sent as is, with a content length.
+ */
+public class Compression extends OutputStream
+{
+   private final int level;
+   private final int minsize;
+   private final String encoding;
+   private final Headers headers;
+   private final OutputStream out;
+
+   private long raw = 0;
+   private Counter sent = null;
+   private OutputStream target = null;
+   private ByteArrayOutputStream buffer = null;
+
+   private static final int BUFSIZE = 8192;
+
+   private static final AtomicLong bytesin = new AtomicLong();
+   private static final AtomicLong bytesout = new AtomicLong();
+   private static final AtomicLong compressed = new AtomicLong();
+   private static final AtomicLong uncompressed = new AtomicLong();
+
+
+   /** Sends the status and headers, when the encoding and length is known. Length 0 means unknown */
+   public interface Headers
+   {
+      void send(String encoding, long length) throws IOException;
+   }
+
+
+   public static Compression stream(String accept, OutputStream out, Headers headers) throws IOException
+   {
+      String encoding = null;
+
+      if (Config.compressionLevel() > 0)
+         encoding = negotiate(accept);
+
+      return(new Compression(encoding,out,headers));
+   }
+
+
+   public static JSONOObject stats()
+   {
+      JSONOObject stats = new JSONOObject();
+
+      long in = bytesin.get();
+      long out = bytesout.get();
+
+      stats.put("compressed",compressed.get());
+      stats.put("uncompressed",uncompressed.get());
+      stats.put("bytes-in",in);
+      stats.put("bytes-out",out);
+      stats.put("bytes-saved",in-out);
+
+      return(stats);
+   }
+
+
+   private Compression(String encoding, OutputStream out, Headers headers) throws IOException
+   {
+      this.out = out;
+      this.headers = headers;
+      this.encoding = encoding;
+      this.level = Config.compressionLevel();
+      this.minsize = Config.compressionMinSize();
+
+      if (encoding == null)
+      {
+         this.target = out;
+         headers.send(null,0);
+         uncompressed.incrementAndGet();
+      }
+      else
+      {
+         this.buffer = new ByteArrayOutputStream(Math.max(minsize,0)+1);
+      }
+   }
+
+
+   @Override
+   public void write(int b) throws IOException
+   {
+      write(new byte[] {(byte) b},0,1);
+   }
+
+
+   @Override
+   public void write(byte[] b, int off, int len) throws IOException
+   {
+      raw += len;
+
+      if (target != null)
+      {
+         target.write(b,off,len);
+         return;
+      }
+
+      buffer.write(b,off,len);
+      if (buffer.size() > minsize) start();
+   }
+
+
+   @Override
+   public void flush() throws IOException
+   {
+      if (target != null) target.flush();
+   }
+
+
+   @Override
+   public void close() throws IOException
+   {
+      if (target == null)
+      {
+         // Below the minimum size, send as is
+         headers.send(null,buffer.size());
+         uncompressed.incrementAndGet();
+
+         buffer.writeTo(out);
+         out.close();
+         return;
+      }
+
+      target.close();
+
+      if (sent != null)
+      {
+         bytesin.addAndGet(raw);
+         bytesout.addAndGet(sent.count);
+      }
+   }
+
+
+   private void start() throws IOException
+   {
+      headers.send(encoding,0);
+      compressed.incrementAndGet();
+
+      sent = new Counter(out);
+
+      if (encoding.equals("gzip"))
+      {
+         target = new GZIPOutputStream(sent,BUFSIZE)
+         {{
+            def.setLevel(level);
+         }};
+      }
+      else
+      {
+         target = new DeflaterOutputStream(sent,new Deflater(level),BUFSIZE)
+         {
+            @Override
+            public void close() throws IOException
+            {
+               super.close();
+               def.end();
+            }
+         };
+      }
+
+      buffer.writeTo(target);
+      buffer = null;
+   }
+
+
+   /** The preferred encoding from the Accept-Encoding header, gzip before deflate */
+   private static String negotiate(String accept)
+   {
+      if (accept == null)
+         return(null);
+
+      boolean gzip = false;
+      boolean deflate = false;
+      boolean wildcard = false;
+
+      boolean nogzip = false;
+      boolean nodeflate = false;
+
+      for(String part : accept.split(","))
+      {
+         String[] tokens = part.split(";");
+         String name = tokens[0].trim().toLowerCase();
+
+         boolean refused = false;
+
+         for (int i = 1; i < tokens.length; i++)
+         {
+            String param = tokens[i].trim().toLowerCase();
+            if (param.startsWith("q=")) refused = param.substring(2).trim().matches("0(\\.0*)?");
+         }
+
+         if (name.equals("gzip")) {if (refused) nogzip = true; else gzip = true;}
+         else if (name.equals("deflate")) {if (refused) nodeflate = true; else deflate = true;}
+         else if (name.equals("*") && !refused) wildcard = true;
+      }
+
+      // The wildcard only accepts encodings that are not refused explicitly
+      if (wildcard && !nogzip) gzip = true;
+      if (wildcard && !nodeflate) deflate = true;
+
+      if (nogzip) gzip = false;
+      if (nodeflate) deflate = false;
+
+      if (gzip) return("gzip");
+      if (deflate) return("deflate");
+
+      return(null);
+   }
+
+
+   private static class Counter extends OutputStream
+   {
+      private long count = 0;
+      private final OutputStream out;
+
+      Counter(OutputStream out)
+      {
+         this.out = out;
+      }
+
+      @Override
+      public void write(int b) throws IOException
+      {
+         out.write(b);
+         count++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException
+      {
+         out.write(b,off,len);
+         count += len;
+      }
+
+      @Override
+      public void flush() throws IOException
+      {
+         out.flush();
+      }
+
+      @Override
+      public void close() throws IOException
+      {
+         out.close();
+      }
+   }
+}
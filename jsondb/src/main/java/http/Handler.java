@@ -164,16 +164,22 @@ public class Handler implements HttpHandler
       try
       {
          Response response = jsondb.execute(appl,request);
-         byte[] content = response.toString(2).getBytes();
 
+         String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
          exchange.getResponseHeaders().set("Content-Type",Handler.JSONType);
-         exchange.sendResponseHeaders(200,content.length);
 
-         out.write(content);
+         // Length 0 means chunked, the response is written as it is serialized
+         Compression body = Compression.stream(accept,out,(encoding,length) ->
+         {
+            exchange.getResponseHeaders().set("Vary","Accept-Encoding");
+            if (encoding != null) exchange.getResponseHeaders().set("Content-Encoding",encoding);
+            exchange.sendResponseHeaders(200,length);
+         });
+
+         response.write(body,Response.indent(exchange.getRequestURI().getRawQuery()));
 
          in.close();
-         out.flush();
-         out.close();
+         body.close();
       }
       catch (Throwable t)
       {
@@ -217,7 +223,6 @@ public class Handler implements HttpHandler
          }
 
          AdminResponse response = Admin.process(path);
-         exchange.sendResponseHeaders(response.code,response.size);
 
          for (int i = 0; i < response.headers.size(); i++)
          {
@@ -225,6 +230,7 @@ public class Handler implements HttpHandler
             exchange.getResponseHeaders().set(header.name,header.value);
          }
 
+         exchange.sendResponseHeaders(response.code,response.size);
          out.write(response.page);
          out.close();
       }
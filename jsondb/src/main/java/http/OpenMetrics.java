@@ -0,0 +1,169 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package http;
+
+import state.State;
+import jsondb.Config;
+import jsondb.JsonDB;
+import java.util.Map;
+import jsondb.Latency;
+import files.FileCache;
+import utils.Histogram;
+import jsondb.requests.Forward;
+import database.definitions.AdvancedPool;
+
+
+/**
+ * Metrics in the OpenMetrics text format. All values are read from counters
+ * and concurrent maps, so scraping never waits for requests in progress.
+ */
+public class OpenMetrics
+{
+   public static final String TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+   private static final double[] quantiles = new double[] {0.5,0.95,0.99};
+
+
+   public static String format()
+   {
+      StringBuilder out = new StringBuilder(4096);
+
+      family(out,"jsondb_requests","counter","Requests handled");
+      sample(out,"jsondb_requests_total","kind","file",JsonDB.getFileRequests());
+      sample(out,"jsondb_requests_total","kind","jsondb",JsonDB.getJsonRequests());
+
+      family(out,"jsondb_request_latency_seconds","summary","Latency per request method");
+      for(Map.Entry<String,Histogram> entry : Latency.methods().entrySet())
+         summary(out,"jsondb_request_latency_seconds","method=\""+escape(entry.getKey())+"\"",entry.getValue());
+
+      family(out,"jsondb_source_latency_seconds","summary","Latency per source and method");
+      for(Map.Entry<String,Histogram> entry : Latency.sources().entrySet())
+      {
+         String key = entry.getKey();
+         int pos = key.lastIndexOf('.');
+
+         String labels = "source=\""+escape(key.substring(0,pos))+"\",method=\""+escape(key.substring(pos+1))+"\"";
+         summary(out,"jsondb_source_latency_seconds",labels,entry.getValue());
+      }
+
+      family(out,"jsondb_phase_latency_seconds","summary","Latency per phase of a request");
+      for(Map.Entry<String,Histogram> entry : Latency.phases().entrySet())
+         summary(out,"jsondb_phase_latency_seconds","phase=\""+entry.getKey()+"\"",entry.getValue());
+
+      AdvancedPool pool = Config.pool();
+
+      if (pool != null)
+      {
+         int[] primary = pool.usage(true);
+         int[] secondary = pool.secondary() ? pool.usage(false) : null;
+
+         family(out,"jsondb_pool_connections","gauge","Connections in the pool");
+         connections(out,"primary",primary);
+         connections(out,"secondary",secondary);
+
+         family(out,"jsondb_pool_waiting","gauge","Threads waiting for a connection");
+         if (primary != null) sample(out,"jsondb_pool_waiting","pool","primary",primary[2]);
+         if (secondary != null) sample(out,"jsondb_pool_waiting","pool","secondary",secondary[2]);
+      }
+
+      family(out,"jsondb_sessions","gauge","Live sessions");
+      sample(out,"jsondb_sessions",null,null,State.sessions().size());
+
+      family(out,"jsondb_cursors","gauge","Open cursors");
+      sample(out,"jsondb_cursors",null,null,State.cursors().size());
+
+      family(out,"jsondb_forwards","counter","Requests forwarded to the instance holding the session");
+      sample(out,"jsondb_forwards_total","result","ok",Forward.forwarded());
+      sample(out,"jsondb_forwards_total","result","failed",Forward.failed());
+
+      family(out,"jsondb_forward_bytes","counter","Bytes received from forwarded requests");
+      sample(out,"jsondb_forward_bytes_total",null,null,Forward.bytes());
+
+      long hits = FileCache.hits();
+      long misses = FileCache.misses();
+
+      family(out,"jsondb_file_cache","counter","File cache lookups");
+      sample(out,"jsondb_file_cache_total","result","hit",hits);
+      sample(out,"jsondb_file_cache_total","result","miss",misses);
+
+      family(out,"jsondb_file_cache_hit_ratio","gauge","Fraction of file cache lookups served from the cache");
+      sample(out,"jsondb_file_cache_hit_ratio",null,null,hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+
+      out.append("# EOF\n");
+      return(out.toString());
+   }
+
+
+   private static void connections(StringBuilder out, String pool, int[] usage)
+   {
+      if (usage == null) return;
+      out.append("jsondb_pool_connections{pool=\"").append(pool).append("\",state=\"active\"} ").append(usage[0]).append('\n');
+      out.append("jsondb_pool_connections{pool=\"").append(pool).append("\",state=\"idle\"} ").append(usage[1]).append('\n');
+   }
+
+
+   private static void summary(StringBuilder out, String name, String labels, Histogram hist)
+   {
+      for(double q : quantiles)
+      {
+         out.append(name).append('{').append(labels).append(",quantile=\"").append(q).append("\"} ");
+         out.append(seconds(hist.percentile(q))).append('\n');
+      }
+
+      out.append(name).append("_sum{").append(labels).append("} ").append(seconds(hist.sum())).append('\n');
+      out.append(name).append("_count{").append(labels).append("} ").append(hist.count()).append('\n');
+   }
+
+
+   private static void family(StringBuilder out, String name, String type, String help)
+   {
+      out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+      if (name.endsWith("_seconds")) out.append("# UNIT ").append(name).append(" seconds\n");
+      out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+   }
+
+
+   private static void sample(StringBuilder out, String name, String label, String value, Number number)
+   {
+      out.append(name);
+
+      if (label != null)
+         out.append('{').append(label).append("=\"").append(value).append("\"}");
+
+      out.append(' ').append(number).append('\n');
+   }
+
+
+   private static double seconds(long micro)
+   {
+      return(micro / 1000000.0);
+   }
+
+
+   private static String escape(String value)
+   {
+      return(value.replace("\\","\\\\").replace("\"","\\\"").replace("\n","\\n"));
+   }
+}
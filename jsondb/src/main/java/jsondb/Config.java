@@ -25,13 +25,13 @@ SOFTWARE.
 package jsondb;
 
 import utils.Misc;
-import state.State;
 import java.io.File;
 import http.HTTPConfig;
 import sources.Sources;
 import files.FileConfig;
 import logger.Applogger;
 import database.SQLTypes;
+import java.util.HashMap;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import static utils.Misc.*;
@@ -56,6 +56,11 @@ public class Config
    private static final String DBSC = "database";
    private static final String FILE = "config.json";
    private static final String APPL = "application";
+   private static final String RESP = "response";
+   private static final String PRETTY = "pretty";
+   private static final String COMPRESS = "compression";
+   private static final String COMPMIN = "min-size";
+   private static final String COMPLVL = "level";
 
    private static final String CLUSTER = "cluster";
    private static final String INSTTYPES = "types";
@@ -73,7 +78,26 @@ public class Config
    private static final String POOLPROPS = "pool-properties";
    private static final String PKEYSOURCE = "primary-key-source";
    private static final String REPLATENCY = "replication-latency";
+   private static final String CONCURRENT = "concurrent-reads";
+   private static final String STREAMING = "stream-results";
+   private static final String STREAMTMOUT = "stream-timeout";
 
+   private static final String FETCHMIN = "min";
+   private static final String FETCHMAX = "max";
+   private static final String FETCHMEM = "memory";
+   private static final String FETCHSIZE = "fetch-size";
+   private static final String STMTCACHE = "statement-cache";
+   private static final String TEMPLATES = "select-templates";
+
+   private static final String TRACE = "sql-trace";
+   private static final String TRACESLOW = "slow";
+   private static final String TRACESAMPLE = "sample";
+   private static final String TRACESOURCES = "sources";
+
+
+   private static boolean pretty = false;
+   private static int complevel = 6;
+   private static int compminsize = 1024;
 
    private static int sestmout = 0;
    private static int trxtmout = 0;
@@ -147,6 +171,20 @@ public class Config
       Config.trxtmout = get(get(SESS),TRXTMOUT);
       Config.contmout = get(get(SESS),CONTMOUT);
 
+      JSONObject resp = config.optJSONObject(RESP);
+      if (resp != null) Config.pretty = resp.optBoolean(PRETTY);
+
+      JSONObject comp = resp == null ? null : resp.optJSONObject(COMPRESS);
+
+      if (comp != null)
+      {
+         Config.complevel = comp.optInt(COMPLVL,complevel);
+         Config.compminsize = comp.optInt(COMPMIN,compminsize);
+
+         if (complevel < 0 || complevel > 9)
+            throw new Exception("Compression level must be between 0 and 9, got "+complevel);
+      }
+
       Config.logger = Applogger.setup(logall);
       JSONObject dbsc = config.getJSONObject(DBSC);
 
@@ -166,7 +204,6 @@ public class Config
    {
       SQLTypes.initialize();
 
-      State.initialize();
       Admins.initialize();
       Sources.initialize();
       FileConfig.initialize();
@@ -230,6 +267,24 @@ public class Config
       return(trxtmout);
    }
 
+   /** Pretty print responses, unless the request asks otherwise */
+   public static boolean pretty()
+   {
+      return(pretty);
+   }
+
+   /** Compression level for responses, 0 disables compression */
+   public static int compressionLevel()
+   {
+      return(complevel);
+   }
+
+   /** Responses smaller than this are not compressed */
+   public static int compressionMinSize()
+   {
+      return(compminsize);
+   }
+
    /** The logger */
    public static Logger logger()
    {
@@ -410,21 +465,59 @@ public class Config
 
    public static class DataBaseConfig
    {
+      private final int fetchmin;
+      private final int fetchmax;
+      private final int fetchmem;
       private final int savepoint;
+      private final int stmtcache;
+      private final int templates;
       private final int replatency;
+      private final int strtimeout;
+      private final int traceslow;
+      private final double tracesample;
       private final boolean useproxy;
+      private final boolean streaming;
+      private final boolean concurrent;
       private final String pkeysource;
       private final String defaultuser;
       private final DatabaseType dbtype;
+      private final HashMap<String,Double> tracesources;
 
       private DataBaseConfig(JSONObject def) throws Exception
       {
          this.useproxy = def.getBoolean(USEPROXY);
+         this.streaming = def.optBoolean(STREAMING);
+         this.strtimeout = def.optInt(STREAMTMOUT,30);
+         this.concurrent = def.optBoolean(CONCURRENT);
          this.replatency = def.optInt(REPLATENCY);
          this.defaultuser = Misc.get(def,DEFUSER);
          this.pkeysource = def.getString(PKEYSOURCE);
          this.dbtype = DatabaseType.getType(def.getString(DBTYPE));
+         this.stmtcache = def.optInt(STMTCACHE,64);
+         this.templates = def.optInt(TEMPLATES,256);
          this.savepoint = this.savepoint(getStringArray(def,SAVEPOINT));
+
+         JSONObject fetch = def.optJSONObject(FETCHSIZE);
+         if (fetch == null) fetch = new JSONObject();
+
+         this.fetchmin = fetch.optInt(FETCHMIN,10);
+         this.fetchmax = fetch.optInt(FETCHMAX,1000);
+         this.fetchmem = fetch.optInt(FETCHMEM,4*1024*1024);
+
+         JSONObject trace = def.optJSONObject(TRACE);
+         if (trace == null) trace = new JSONObject();
+
+         this.traceslow = trace.optInt(TRACESLOW,1000);
+         this.tracesample = trace.optDouble(TRACESAMPLE,0);
+         this.tracesources = new HashMap<String,Double>();
+
+         JSONObject sources = trace.optJSONObject(TRACESOURCES);
+
+         if (sources != null)
+         {
+            for(String source : sources.keySet())
+               tracesources.put(source.toLowerCase(),sources.getDouble(source));
+         }
       }
 
       public boolean savepoint(boolean write)
@@ -448,6 +541,72 @@ public class Config
          return(useproxy);
       }
 
+      public boolean concurrent()
+      {
+         return(concurrent);
+      }
+
+      public DatabaseType type()
+      {
+         return(dbtype);
+      }
+
+      public boolean streaming()
+      {
+         return(streaming);
+      }
+
+      /** Seconds a streamed cursor may be idle, before it is closed and left to be re-executed */
+      public int streamTimeout()
+      {
+         return(strtimeout);
+      }
+
+      public int fetchmin()
+      {
+         return(fetchmin);
+      }
+
+      public int fetchmax()
+      {
+         return(fetchmax);
+      }
+
+      /** Max prepared statements kept per connection */
+      public int stmtcache()
+      {
+         return(stmtcache);
+      }
+
+      public int templates()
+      {
+         return(templates);
+      }
+
+      /** Max bytes fetched per round trip */
+      public int fetchmemory()
+      {
+         return(fetchmem);
+      }
+
+      /** Statements slower than this (ms) are always traced, 0 disables */
+      public int traceslow()
+      {
+         return(traceslow);
+      }
+
+      /** The fraction of statements from the source that are traced */
+      public double tracesample(String source)
+      {
+         Double rate = null;
+
+         if (source != null)
+            rate = tracesources.get(source.toLowerCase());
+
+         if (rate == null) return(tracesample);
+         return(rate);
+      }
+
       public String defaultuser()
       {
          return(defaultuser);
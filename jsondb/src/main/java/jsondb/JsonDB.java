@@ -201,17 +201,17 @@ public class JsonDB
 
    private void log(String path, String status)
    {
-      Config.logger().info(String.format("%-40s %s",path,status));
+      Config.logger().info(() -> String.format("%-40s %s",path,status));
    }
 
    private void log(FileResponse response)
    {
-      Config.logger().info(response.toString());
+      Config.logger().info(() -> response.toString());
    }
 
    private void log(JSONObject request, Response response)
    {
-      if (response.exception() != null) Config.logger().warning(response.get("message")+"");
-      Config.logger().info("/jsondb\n\n"+request.toString(2)+"\n\n"+response.toString(2)+"\n");
+      if (response.exception() != null) Config.logger().warning(() -> response.get("message")+"");
+      Config.logger().info(() -> "/jsondb\n\n"+request.toString(2)+"\n\n"+response.toString(2)+"\n");
    }
 }
\ No newline at end of file
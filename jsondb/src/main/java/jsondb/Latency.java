@@ -0,0 +1,149 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package jsondb;
+
+import java.util.Map;
+import utils.Histogram;
+import java.util.TreeMap;
+import utils.JSONOObject;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Latency histograms per request method, per source and method, and per phase of a request.
+ * The number of histograms is bounded, sources beyond the limit are not recorded.
+ */
+public class Latency
+{
+   public static final String SESSION = "session";
+   public static final String BUILD = "sql-build";
+   public static final String EXECUTE = "execute";
+   public static final String FETCH = "fetch";
+   public static final String SERIALIZE = "serialize";
+
+   private static final int MAXKEYS = 1024;
+
+   private static final String[] phases =
+      new String[] {SESSION,BUILD,EXECUTE,FETCH,SERIALIZE};
+
+   private static final ConcurrentHashMap<String,Histogram> methods =
+      new ConcurrentHashMap<String,Histogram>();
+
+   private static final ConcurrentHashMap<String,Histogram> sources =
+      new ConcurrentHashMap<String,Histogram>();
+
+   private static final ConcurrentHashMap<String,Histogram> phase =
+      new ConcurrentHashMap<String,Histogram>()
+      {{
+         for(String name : phases) put(name,new Histogram());
+      }};
+
+
+   /** Record a request, the source may be null */
+   public static void request(String type, String method, String source, long nano)
+   {
+      String key = type.toLowerCase()+"."+method;
+      Histogram hist = get(methods,key);
+      if (hist != null) hist.record(nano);
+
+      if (source == null) return;
+
+      hist = get(sources,source.toLowerCase()+"."+method);
+      if (hist != null) hist.record(nano);
+   }
+
+
+   /** Record a phase of a request */
+   public static void phase(String name, long nano)
+   {
+      phase.get(name).record(nano);
+   }
+
+
+   /** Histograms per phase, in the order of a request */
+   public static Map<String,Histogram> phases()
+   {
+      LinkedHashMap<String,Histogram> hists = new LinkedHashMap<String,Histogram>();
+      for(String name : phases) hists.put(name,phase.get(name));
+      return(hists);
+   }
+
+
+   /** Histograms per request method, keyed by type.method */
+   public static Map<String,Histogram> methods()
+   {
+      return(new TreeMap<String,Histogram>(methods));
+   }
+
+
+   /** Histograms per source, keyed by source.method */
+   public static Map<String,Histogram> sources()
+   {
+      return(new TreeMap<String,Histogram>(sources));
+   }
+
+
+   public static void reset()
+   {
+      for(Histogram hist : phase.values()) hist.reset();
+      for(Histogram hist : methods.values()) hist.reset();
+      for(Histogram hist : sources.values()) hist.reset();
+   }
+
+
+   public static JSONOObject stats()
+   {
+      JSONOObject stats = new JSONOObject();
+      stats.put("unit","ms");
+
+      stats.put("phases",toJSON(phases()));
+      stats.put("methods",toJSON(methods()));
+      stats.put("sources",toJSON(sources()));
+
+      return(stats);
+   }
+
+
+   private static JSONOObject toJSON(Map<String,Histogram> hists)
+   {
+      JSONOObject json = new JSONOObject();
+
+      for(Map.Entry<String,Histogram> entry : hists.entrySet())
+         json.put(entry.getKey(),entry.getValue().toJSON());
+
+      return(json);
+   }
+
+
+   private static Histogram get(ConcurrentHashMap<String,Histogram> hists, String key)
+   {
+      Histogram hist = hists.get(key);
+      if (hist != null) return(hist);
+
+      if (hists.size() >= MAXKEYS) return(null);
+      return(hists.computeIfAbsent(key,(k) -> new Histogram()));
+   }
+}
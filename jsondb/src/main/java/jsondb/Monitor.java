@@ -22,18 +22,33 @@
 package jsondb;
 
 import java.util.Date;
-import java.util.ArrayList;
+import java.util.HashMap;
+import utils.TimingWheel;
 import state.StatePersistency;
 import java.util.logging.Level;
+import utils.TimingWheel.Timeout;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 
+/**
+ * Session, connection and transaction timeouts are registered in a timing wheel
+ * when used, and handled when they expire. The Monitor thread itself only sweeps
+ * the persisted state for sessions left behind by other instances.
+ */
 public class Monitor extends Thread
 {
    private static int contmout = 0;
    private static int trxtmout = 0;
    private static int sestmout = 0;
+   private static int strtmout = 0;
+
+   private static TimingWheel wheel = null;
 
    private static final int SLACK = 500;
+   private static final int SWEEP = 1000;
+   private static final int RETRY = 5000;
    private static final int MAXINT = 60000;
 
 
@@ -47,31 +62,67 @@ public class Monitor extends Thread
       contmout = Config.conTimeout() * 1000;
       trxtmout = Config.trxTimeout() * 1000;
       sestmout = Config.sesTimeout() * 1000;
+      strtmout = Config.dbconfig().streamTimeout() * 1000;
+
+      wheel = new TimingWheel(SLACK);
+      wheel.start();
 
       this.setDaemon(true);
       this.setName(this.getClass().getName());
    }
 
-   public void run()
+
+   /** Session used, make sure it expires */
+   public static void session(Session session)
    {
-      int interval = sestmout;
+      if (sestmout <= 0) return;
+      long now = System.currentTimeMillis();
+      wheel.schedule(session.timeouts().session,now+sestmout);
+   }
+
+
+   /** Connection used, make sure it is released when idle */
+   public static void connection(Session session)
+   {
+      if (contmout <= 0) return;
+      long now = System.currentTimeMillis();
+      wheel.schedule(session.timeouts().connection,now+contmout);
+   }
+
+
+   /** Transaction used, make sure it is rolled back when idle */
+   public static void transaction(Session session)
+   {
+      if (trxtmout <= 0) return;
+      long now = System.currentTimeMillis();
+      wheel.schedule(session.timeouts().transaction,now+trxtmout);
+   }
 
-      if (contmout > 0 && contmout < interval) interval = contmout;
-      if (trxtmout > 0 && trxtmout < interval) interval = trxtmout;
 
+   /** Cursor streamed, make sure the transaction ends when idle */
+   public static void stream(Session session)
+   {
+      if (strtmout <= 0) return;
+      long now = System.currentTimeMillis();
+      wheel.schedule(session.timeouts().stream,now+strtmout);
+   }
+
+
+   public void run()
+   {
+      int interval = sestmout;
       interval = interval > MAXINT*2 ? MAXINT : (int) (3.0/4*interval);
 
-      Config.logger().info(this.getClass().getSimpleName()+" running every "+interval/1000+" secs");
+      Config.logger().info(this.getClass().getSimpleName()+" sweeping every "+interval/1000+" secs");
 
       while (true)
       {
          try
          {
-            long now = (new Date()).getTime();
-            StatePersistency.cleanout(now,sestmout);
-
             Thread.sleep(interval);
-            cleanout(now,sestmout,contmout,trxtmout);
+
+            long now = (new Date()).getTime();
+            StatePersistency.cleanout(now,sestmout,SWEEP);
          }
          catch (Throwable t)
          {
@@ -80,126 +131,240 @@ public class Monitor extends Thread
       }
    }
 
-   private void cleanout(long now, int sestmout, int contmout, int trxtmout) throws Exception
+
+   public static class Timeouts
    {
-      for(Session session : state.State.sessions())
+      private final Timeout stream;
+      private final Timeout session;
+      private final Timeout connection;
+      private final Timeout transaction;
+
+      Timeouts(Session session)
       {
-         Date lastUsed = session.lastUsed();
-         Date lastTrxUsed = session.lastUsedTrx();
-         Date lastConnUsed = session.lastUsedConn();
+         this.stream = new StreamTimeout(session);
+         this.session = new SessionTimeout(session);
+         this.connection = new ConnectionTimeout(session);
+         this.transaction = new TransactionTimeout(session);
+      }
+   }
 
-         boolean trx = lastTrxUsed != null && trxtmout > 0;
-         boolean con = session.isConnected() && contmout > 0;
 
-         if (trx && (now - lastTrxUsed.getTime() > trxtmout))
-         {
-            Config.logger().info("rollback session "+session.guid());
-            session = Session.get(session.guid(),true);
+   private static class SessionTimeout extends Timeout
+   {
+      private final Session session;
 
-            if (session != null)
-            {
-               try {session.rollback();}
-               finally {session.down();}
-            }
-         }
+      SessionTimeout(Session session)
+      {
+         this.session = session;
+      }
 
-         if (con && (now - lastConnUsed.getTime() > contmout))
-         {
-            Config.logger().info("release connection "+session.guid());
-            session = Session.get(session.guid(),true);
+      @Override
+      public long expired(long now) throws Exception
+      {
+         if (!state.State.hasSession(session))
+            return(0);
 
-            if (session != null)
-            {
-               try {session.release(contmout);}
-                 finally {session.down();}
-            }
-         }
+         long used = session.lastUsed().getTime();
 
-         if (now - lastUsed.getTime() > sestmout)
-         {
-            Config.logger().info("remove session "+session.guid());
-            session = Session.get(session.guid(),true);
+         if (now - used <= sestmout)
+            return(used + sestmout);
 
-            if (session != null)
-            {
-               try {session.disconnect();}
-               finally {session.down();}
-            }
+         Config.logger().info("remove session "+session.guid());
+         Session session = Session.get(this.session.guid(),true);
+
+         if (session != null)
+         {
+            try {session.disconnect();}
+            finally {session.down();}
          }
+
+         // Still in use
+         if (state.State.hasSession(this.session))
+            return(now + RETRY);
+
+         return(0);
       }
    }
 
 
-   public static class CloseAsap extends Thread
+   private static class ConnectionTimeout extends Timeout
    {
-      private static CloseAsap running = null;
-      private static final int latency = Config.dbconfig().latency();
-
-      private final static ArrayList<Session> sessions =
-         new ArrayList<Session>();
+      private final Session session;
 
+      ConnectionTimeout(Session session)
+      {
+         this.session = session;
+      }
 
-      public static synchronized void done()
+      @Override
+      public long expired(long now) throws Exception
       {
-         running = null;
+         if (!state.State.hasSession(session))
+            return(0);
+
+         if (!session.isConnected())
+            return(0);
 
-         if (sessions.size() > 0)
-            running = new CloseAsap();
+         long used = session.lastUsedConn().getTime();
+
+         if (now - used <= contmout)
+            return(used + contmout);
+
+         Config.logger().info("release connection "+session.guid());
+         Session session = Session.get(this.session.guid(),true);
+
+         if (session != null)
+         {
+            try {session.release(contmout);}
+            finally {session.down();}
+         }
+
+         // In a transaction
+         if (this.session.isConnected())
+            return(now + contmout);
+
+         return(0);
       }
+   }
 
 
-      public static synchronized void add(Session session)
+   private static class TransactionTimeout extends Timeout
+   {
+      private final Session session;
+
+      TransactionTimeout(Session session)
       {
-         if (contmout <= 0) return;
-         if (session.isStateful()) return;
+         this.session = session;
+      }
+
+      @Override
+      public long expired(long now) throws Exception
+      {
+         if (!state.State.hasSession(session))
+            return(0);
+
+         Date trxused = session.lastUsedTrx();
+         if (trxused == null) return(0);
+
+         long used = trxused.getTime();
+
+         if (now - used <= trxtmout)
+            return(used + trxtmout);
+
+         Config.logger().info("rollback session "+session.guid());
+         Session session = Session.get(this.session.guid(),true);
 
-         sessions.add(session);
-         if (running == null) running = new CloseAsap();
+         if (session != null)
+         {
+            try {session.rollback();}
+            finally {session.down();}
+         }
+
+         return(0);
       }
+   }
 
 
-      public static synchronized void remove(Session session)
+   private static class StreamTimeout extends Timeout
+   {
+      private final Session session;
+
+      StreamTimeout(Session session)
       {
-         sessions.remove(session);
+         this.session = session;
       }
 
+      @Override
+      public long expired(long now) throws Exception
+      {
+         if (!state.State.hasSession(session))
+            return(0);
 
-      @SuppressWarnings("unchecked")
-      private static synchronized ArrayList<Session> getSessions()
+         // Closed cursors are saved, and re-executed on the next fetch
+         return(session.endStreams(now,strtmout));
+      }
+   }
+
+
+   /**
+    * Release primary connections from stateless sessions when the replication
+    * latency has passed. One thread, the deadlines are kept in the executors queue.
+    */
+   public static class CloseAsap
+   {
+      private static final int latency = Config.dbconfig().latency();
+
+      private static final ScheduledThreadPoolExecutor scheduler = scheduler();
+
+      private static final HashMap<Session,ScheduledFuture<?>> sessions =
+         new HashMap<Session,ScheduledFuture<?>>();
+
+
+      public static synchronized void add(Session session)
       {
-         return((ArrayList<Session>) sessions.clone());
+         if (contmout <= 0) return;
+         if (session.isStateful()) return;
+         if (sessions.containsKey(session)) return;
+
+         long now = System.currentTimeMillis();
+         long when = Math.max(now + latency,session.releaseWriteAt());
+
+         schedule(session,when);
       }
 
 
-      private CloseAsap()
+      public static synchronized void remove(Session session)
       {
-         this.setName(this.getClass().getName());
-         this.setDaemon(true); this.start();
+         ScheduledFuture<?> task = sessions.remove(session);
+         if (task != null) task.cancel(false);
       }
 
 
-      public void run()
+      private static void release(Session session)
       {
          try
          {
-            while (true)
+            synchronized(session)
             {
-               sleep(latency+SLACK);
-               ArrayList<Session> sessions = getSessions();
+               // releaseWrite removes the session when done
+               if (session.releaseWrite())
+                  return;
 
-               if (sessions.size() == 0)
-                  break;
+               long when = session.releaseWriteAt();
 
-               for(Session session : sessions)
-                  session.releaseWrite();
+               synchronized(CloseAsap.class)
+               {
+                  if (when > 0) schedule(session,when);
+                  else sessions.remove(session);
+               }
             }
          }
          catch (Throwable t)
          {
             Config.logger().log(Level.SEVERE,t.toString(),t);
          }
+      }
+
 
-         done();
+      private static void schedule(Session session, long when)
+      {
+         long delay = when - System.currentTimeMillis();
+         sessions.put(session,scheduler.schedule(() -> release(session),delay,TimeUnit.MILLISECONDS));
+      }
+
+
+      private static ScheduledThreadPoolExecutor scheduler()
+      {
+         ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,(runnable) ->
+         {
+            Thread thread = new Thread(runnable);
+            thread.setName(CloseAsap.class.getName());
+            thread.setDaemon(true);
+            return(thread);
+         });
+
+         scheduler.setRemoveOnCancelPolicy(true);
+         return(scheduler);
       }
    }
-}
\ No newline at end of file
+}
@@ -26,7 +26,10 @@ package jsondb;
 
 import messages.Messages;
 import utils.JSONOObject;
+import java.io.IOException;
 import org.json.JSONObject;
+import java.io.OutputStream;
+import utils.JSONStreamWriter;
 
 
 public class Response
@@ -34,6 +37,31 @@ public class Response
    private Throwable error;
    private JSONObject payload;
 
+   private static final String PRETTY = "pretty";
+
+
+   /**
+    * The indentation asked for in the query string, i.e. ?pretty or ?pretty=false.
+    * Without it, the configured default is used.
+    */
+   public static int indent(String query)
+   {
+      boolean pretty = Config.pretty();
+
+      if (query != null)
+      {
+         for(String param : query.split("&"))
+         {
+            String[] nvp = param.split("=",2);
+
+            if (nvp[0].equals(PRETTY))
+               pretty = nvp.length == 1 || !nvp[1].equalsIgnoreCase("false");
+         }
+      }
+
+      return(pretty ? 2 : 0);
+   }
+
    public Response()
    {
    }
@@ -102,10 +130,19 @@ public class Response
       return(payload.toString(indent));
    }
 
+   /** Write the response directly to the client */
+   public void write(OutputStream out, int indent) throws IOException
+   {
+      ensure();
+      long time = System.nanoTime();
+      JSONStreamWriter.write(out,payload,indent);
+      Latency.phase(Latency.SERIALIZE,System.nanoTime()-time);
+   }
+
    private void ensure()
    {
       if (payload == null)
-         payload = new JSONObject();
+         payload = new JSONOObject();
 
       if (error != null)
       {
@@ -40,8 +40,10 @@ import database.JdbcInterface;
 import state.StatePersistency;
 import java.util.logging.Level;
 import jsondb.Monitor.CloseAsap;
+import java.util.concurrent.atomic.AtomicInteger;
 import database.definitions.AdvancedPool;
 import state.StatePersistency.SessionInfo;
+import database.JdbcInterface.BatchResponse;
 import database.JdbcInterface.UpdateResponse;
 import state.StatePersistency.TransactionInfo;
 
@@ -57,13 +59,21 @@ public class Session
    private final boolean stateful;
 
    private final Object SYNC = new Object();
+   private final AtomicInteger clients = new AtomicInteger(0);
+
+   private final AtomicInteger reads = new AtomicInteger(0);
+   private final AtomicInteger peakreads = new AtomicInteger(0);
+   private final AtomicInteger borrowed = new AtomicInteger(0);
+
+   // Set when removed from State, no more clients accepted
+   private static final int RETIRED = Integer.MIN_VALUE/2;
 
-   private int clients = 0;
    private Date used = null;
    private Date trxused = null;
    private Date connused = null;
    private boolean forcewrt = false;
    private Primary primary = new Primary();
+   private final Monitor.Timeouts timeouts = new Monitor.Timeouts(this);
 
    private JdbcInterface rconn = null;
    private JdbcInterface wconn = null;
@@ -75,6 +85,7 @@ public class Session
    private final static int contmout = Config.conTimeout();
    private final static int latency = Config.dbconfig().latency();
    private final static boolean usesec = Config.pool().secondary();
+   private final static boolean concurrent = Config.dbconfig().concurrent();
 
 
    public static Session get(String guid, boolean internal) throws Exception
@@ -107,7 +118,13 @@ public class Session
             session.transfer();
          }
 
-         State.addSession(session);
+         Session current = State.addSession(session);
+
+         // The registry holds the first reference, the caller needs its own
+         if (current == session) session.up();
+         else session = current;
+
+         Monitor.session(session);
       }
 
       return(session);
@@ -119,11 +136,12 @@ public class Session
       String guid = StatePersistency.createSession(user,stateful);
       Session session = new Session(guid,user,stateful);
       State.addSession(session);
+      Monitor.session(session);
       return(session);
    }
 
 
-   public static boolean remove(Session session)
+   public static boolean remove(Session session) throws Exception
    {
       if (State.removeSession(session.guid))
       {
@@ -160,23 +178,33 @@ public class Session
       this.inst = Config.inst();
    }
 
+   /** Add a client, returns null if the session is retired */
    public Session up()
    {
-      synchronized(SYNC)
-      { clients++; }
-      return(this);
+      while (true)
+      {
+         int clients = this.clients.get();
+         if (clients < 0) return(null);
+
+         if (this.clients.compareAndSet(clients,clients+1))
+            return(this);
+      }
    }
 
    public int clients()
    {
-      synchronized(SYNC)
-      {return(clients);}
+      return(Math.max(0,clients.get()));
+   }
+
+   /** Retire the session, if the caller is the only client */
+   public boolean retire()
+   {
+      return(clients.compareAndSet(1,RETIRED));
    }
 
    public Session down()
    {
-      synchronized(SYNC)
-      { clients--; }
+      clients.decrementAndGet();
 
       try
       {
@@ -216,6 +244,11 @@ public class Session
       return(stateful);
    }
 
+   public Monitor.Timeouts timeouts()
+   {
+      return(timeouts);
+   }
+
 
    public Date lastUsed()
    {
@@ -296,6 +329,7 @@ public class Session
    {
       synchronized(SYNC) {this.used = new Date();}
       boolean success = StatePersistency.touchSession(guid);
+      Monitor.session(this);
       return(success);
    }
 
@@ -308,8 +342,11 @@ public class Session
 
    public synchronized TransactionInfo touchTrx() throws Exception
    {
+      boolean started = this.trxused != null;
+
       this.trxused = new Date();
-      TransactionInfo info = StatePersistency.touchTransaction(guid,trxused);
+      TransactionInfo info = StatePersistency.touchTransaction(guid,trxused,started);
+      Monitor.transaction(this);
       return(info);
    }
 
@@ -324,6 +361,7 @@ public class Session
          if (cursor == null) return(null);
 
          JdbcInterface read = ensure(false,!cursor.primary());
+         boolean seek = cursor.seek();
 
          long time = System.nanoTime();
          read.executeQuery(cursor,false);
@@ -332,9 +370,12 @@ public class Session
          cursor.primary(forcewrt);
          State.addCursor(cursor);
 
-         time = System.nanoTime();
-         cursor.position();
-         cursor.ftccost(System.nanoTime()-time);
+         if (!seek)
+         {
+            time = System.nanoTime();
+            cursor.position();
+            cursor.ftccost(System.nanoTime()-time);
+         }
       }
 
       synchronized(SYNC)
@@ -356,15 +397,20 @@ public class Session
 
       if (!forcewrt)
       {
+         boolean seek = cursor.seek();
+
          long time = System.nanoTime();
          read.executeQuery(cursor,false);
          cursor.excost(System.nanoTime()-time);
 
          cursor.primary(false);
 
-         time = System.nanoTime();
-         cursor.position();
-         cursor.ftccost(System.nanoTime()-time);
+         if (!seek)
+         {
+            time = System.nanoTime();
+            cursor.position();
+            cursor.ftccost(System.nanoTime()-time);
+         }
       }
    }
 
@@ -375,7 +421,45 @@ public class Session
       {
          if (wconn != null && wconn.isConnected()) return(true);
          if (rconn != null && rconn.isConnected()) return(true);
-         return(false);
+         return(borrowed.get() > 0);
+      }
+   }
+
+
+   /** Number of reads running in parallel right now */
+   public int concurrentReads()
+   {
+      return(reads.get());
+   }
+
+
+   /** Max number of reads that has been running in parallel */
+   public int peakConcurrentReads()
+   {
+      return(peakreads.get());
+   }
+
+
+   /** Number of secondary connections held by cursors */
+   public int borrowedConnections()
+   {
+      return(borrowed.get());
+   }
+
+
+   /** Return a connection borrowed for a concurrent read */
+   public void giveBack(JdbcInterface conn)
+   {
+      borrowed.decrementAndGet();
+
+      try
+      {
+         conn.clearClientInfo(getClientInfo());
+         conn.disconnect();
+      }
+      catch (Exception e)
+      {
+         Config.logger().log(Level.SEVERE,e.toString(),e);
       }
    }
 
@@ -393,7 +477,7 @@ public class Session
 
    public synchronized boolean release(int idle) throws Exception
    {
-      ArrayList<Cursor> cursors = State.getAllCursors(guid);
+      ArrayList<Cursor> cursors = State.getAllCursors(this);
 
       long used = lastUsed().getTime();
       long curr = (new Date()).getTime();
@@ -425,7 +509,7 @@ public class Session
 
 		if (!State.removeSession(guid))
       {
-         Config.logger().warning(Messages.get("DISC_WITH_CLIENTS",guid,clients));
+         Config.logger().warning(Messages.get("DISC_WITH_CLIENTS",guid,clients()));
          return(false);
       }
 
@@ -434,6 +518,25 @@ public class Session
    }
 
 
+   /**
+    * End the streams of cursors idle for more than idle millis. Not synchronized,
+    * since a fetch locks the cursor before the session.
+    * @return the next deadline, or 0 if no cursors are streamed
+    */
+   public long endStreams(long now, long idle)
+   {
+      long next = 0;
+
+      for(Cursor cursor : State.getAllCursors(this))
+      {
+         long expires = cursor.expire(now,idle);
+         if (expires > 0 && (next == 0 || expires < next)) next = expires;
+      }
+
+      return(next);
+   }
+
+
    public synchronized boolean releaseWrite() throws Exception
    {
       long now = (new Date()).getTime();
@@ -448,7 +551,7 @@ public class Session
       try {wconn.disconnect();} catch (Exception e)
       {Config.logger().log(Level.SEVERE,e.toString(),e);}
 
-      ArrayList<Cursor> cursors = State.getAllCursors(guid);
+      ArrayList<Cursor> cursors = State.getAllCursors(this);
 
       for (Cursor cursor : cursors)
       {
@@ -461,13 +564,23 @@ public class Session
    }
 
 
+   /** When the primary connection can be released, 0 if not connected */
+   public synchronized long releaseWriteAt()
+   {
+      if (wconn == null || !wconn.isConnected())
+         return(0);
+
+      return(this.primary.lastused + latency + 1);
+   }
+
+
    public synchronized boolean disconnect() throws Exception
    {
-      ArrayList<Cursor> cursors = State.getAllCursors(guid);
+      ArrayList<Cursor> cursors = State.getAllCursors(this);
 
       if (!State.removeSession(guid))
       {
-         Config.logger().warning(Messages.get("DISC_WITH_CLIENTS",guid,clients));
+         Config.logger().warning(Messages.get("DISC_WITH_CLIENTS",guid,clients()));
          return(false);
       }
 
@@ -544,11 +657,11 @@ public class Session
    }
 
 
-   public synchronized boolean execute(String sql, boolean write, boolean savepoint) throws Exception
+   public synchronized boolean execute(String source, String sql, boolean write, boolean savepoint) throws Exception
    {
       if (!stateful) savepoint = false;
       JdbcInterface conn = ensure(write);
-      boolean success = conn.execute(sql,savepoint);
+      boolean success = conn.execute(source,sql,savepoint);
 
       if (write)
       {
@@ -566,7 +679,7 @@ public class Session
    }
 
 
-   public synchronized JSONObject executeCall(String sql, ArrayList<BindValue> bindvalues, boolean write, boolean savepoint) throws Exception
+   public synchronized JSONObject executeCall(String source, String sql, ArrayList<BindValue> bindvalues, boolean write, boolean savepoint) throws Exception
    {
       if (!stateful) savepoint = false;
       JdbcInterface conn = ensure(write);
@@ -580,7 +693,7 @@ public class Session
          if (bv.out()) outvals.add(bv);
       }
 
-      resp = conn.executeCall(sql,bindvalues,savepoint);
+      resp = conn.executeCall(source,sql,bindvalues,savepoint);
 
       if (write)
       {
@@ -616,19 +729,89 @@ public class Session
    }
 
 
-   public synchronized Cursor executeQuery(String sql, ArrayList<BindValue> bindvalues) throws Exception
+   public Cursor executeQuery(String sql, ArrayList<BindValue> bindvalues) throws Exception
+   {
+      return(executeQuery(null,sql,bindvalues,true,false,0));
+   }
+
+
+   public Cursor executeQuery(String sql, ArrayList<BindValue> bindvalues, boolean savepoint, int pagesize) throws Exception
    {
-      return(executeQuery(sql,bindvalues,true,false,0));
+      return(executeQuery(null,sql,bindvalues,false,savepoint,pagesize));
    }
 
 
-   public synchronized Cursor executeQuery(String sql, ArrayList<BindValue> bindvalues, boolean savepoint, int pagesize) throws Exception
+   /** The source is used to tune the fetch size */
+   public Cursor executeQuery(String source, String sql, ArrayList<BindValue> bindvalues, boolean savepoint, int pagesize) throws Exception
    {
-      return(executeQuery(sql,bindvalues,false,savepoint,pagesize));
+      return(executeQuery(source,sql,bindvalues,false,savepoint,pagesize));
    }
 
 
-   public synchronized Cursor executeQuery(String sql, ArrayList<BindValue> bindvalues, boolean forceread, boolean savepoint, int pagesize) throws Exception
+   public Cursor executeQuery(String source, String sql, ArrayList<BindValue> bindvalues, boolean forceread, boolean savepoint, int pagesize) throws Exception
+   {
+      if (!parallel(forceread))
+         return(executeQuerySerialized(source,sql,bindvalues,forceread,savepoint,pagesize));
+
+      int running = reads.incrementAndGet();
+      peakreads.accumulateAndGet(running,Math::max);
+
+      JdbcInterface read = null;
+
+      try
+      {
+         for(BindValue bv : bindvalues)
+            bv.validate();
+
+         read = JdbcInterface.getInstance(false);
+         read.connect(this.user,false,false);
+         borrowed.incrementAndGet();
+
+         read.setClientInfo(getClientInfo());
+
+         Cursor cursor = Cursor.create(this,source,sql,bindvalues,pagesize);
+         cursor.connection(read);
+
+         long time = System.nanoTime();
+         cursor.connection().executeQuery(cursor,false);
+         cursor.excost(System.nanoTime()-time);
+
+         synchronized(SYNC)
+         {
+            used = new Date();
+            connused = new Date();
+         }
+
+         Monitor.connection(this);
+         State.addCursor(cursor);
+
+         // The cursor gives the connection back when closed
+         read = null;
+         return(cursor);
+      }
+      finally
+      {
+         reads.decrementAndGet();
+         if (read != null && read.isConnected()) giveBack(read);
+      }
+   }
+
+
+   /**
+    * Reads can run in parallel on borrowed secondary connections, if the session
+    * is stateless and not forced to use the primary database because of recent updates
+    */
+   private synchronized boolean parallel(boolean forceread)
+   {
+      if (!concurrent || stateful || !usesec)
+         return(false);
+
+      if (forceread) return(true);
+      return(!primary.force(latency));
+   }
+
+
+   private synchronized Cursor executeQuerySerialized(String source, String sql, ArrayList<BindValue> bindvalues, boolean forceread, boolean savepoint, int pagesize) throws Exception
    {
       if (!stateful) savepoint = false;
       JdbcInterface read = ensure(false,forceread);
@@ -636,7 +819,7 @@ public class Session
       for(BindValue bv : bindvalues)
          bv.validate();
 
-      Cursor cursor = Cursor.create(this,sql,bindvalues,pagesize);
+      Cursor cursor = Cursor.create(this,source,sql,bindvalues,pagesize);
 
       cursor.primary(forcewrt);
       long time = System.nanoTime();
@@ -654,7 +837,7 @@ public class Session
    }
 
 
-   public synchronized JSONObject executeUpdate(String sql, ArrayList<BindValue> bindvalues, String[] returning, boolean savepoint) throws Exception
+   public synchronized JSONObject executeUpdate(String source, String sql, ArrayList<BindValue> bindvalues, String[] returning, boolean savepoint) throws Exception
    {
       JSONObject response = null;
       if (!stateful) savepoint = false;
@@ -663,7 +846,7 @@ public class Session
       for(BindValue bv : bindvalues)
          bv.validate();
 
-      UpdateResponse resp = write.executeUpdate(sql,bindvalues,returning,savepoint);
+      UpdateResponse resp = write.executeUpdate(source,sql,bindvalues,returning,savepoint);
 
       response = new JSONOObject().put("affected",resp.affected);
 
@@ -699,6 +882,70 @@ public class Session
    }
 
 
+   public synchronized JSONObject executeBatch(String source, String sql, ArrayList<ArrayList<BindValue>> rows, String[] returning, int batchsize, boolean savepoint) throws Exception
+   {
+      if (rows.size() == 0)
+         return(new JSONOObject().put("affected",0).put("counts",new JSONArray()));
+
+      if (!stateful) savepoint = false;
+      JdbcInterface write = ensure(true);
+
+      for(ArrayList<BindValue> row : rows)
+      {
+         for(BindValue bv : row)
+            bv.validate();
+      }
+
+      BatchResponse resp = write.executeBatch(source,sql,rows,returning,batchsize,savepoint);
+
+      int affected = 0;
+      JSONArray counts = new JSONArray();
+
+      // Some drivers only tells that the row succeeded (-2)
+      for (int i = 0; i < resp.affected.length; i++)
+      {
+         counts.put(resp.affected[i]);
+         if (resp.affected[i] > 0) affected += resp.affected[i];
+      }
+
+      JSONObject response = new JSONOObject();
+
+      response.put("affected",affected);
+      response.put("counts",counts);
+
+      if (rows.size() > 0)
+      {
+         if (stateful) touchTrx();
+         if (usesec) primary.dirty(stateful);
+      }
+
+      if (resp.returning != null)
+      {
+         JSONArray rets = new JSONArray();
+
+         for(ArrayList<Object[]> data : resp.returning)
+         {
+            for(Object[] values : data)
+            {
+               JSONArray row = new JSONArray();
+               for(Object value : values) row.put(value);
+               rets.put(row);
+            }
+         }
+
+         response.put("rows",rets);
+      }
+
+      synchronized(SYNC)
+      {
+         used = new Date();
+         connused = new Date();
+      }
+
+      return(response);
+   }
+
+
    public boolean authenticate(String username, String password) throws Exception
    {
       if (username == null) return(false);
@@ -733,6 +980,7 @@ public class Session
          rconn = JdbcInterface.getInstance(true);
 
       connused = new Date();
+      Monitor.connection(this);
 
       if (write && wconn.isConnected())
          return(wconn);
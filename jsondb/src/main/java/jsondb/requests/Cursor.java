@@ -26,8 +26,8 @@ package jsondb.requests;
 
 import jsondb.Session;
 import jsondb.Response;
+import utils.JSONRows;
 import utils.JSONOObject;
-import org.json.JSONArray;
 import org.json.JSONObject;
 import java.util.ArrayList;
 
@@ -42,6 +42,7 @@ public class Cursor
    private static final String CLOSE = "close";
    private static final String CURSOR = "cursor";
    private static final String SESSION = "session";
+   private static final String VECTORS = "vectors";
    private static final String PAGESIZE = "page-size";
 
 
@@ -81,13 +82,15 @@ public class Cursor
    {
       JSONObject response = new JSONOObject();
 
+      boolean vectors = false;
+
       if (definition.has(FETCH+"()"))
       {
          JSONObject fetch = Utils.getMethod(definition,FETCH);
          if (fetch.has(PAGESIZE)) cursor.pagesize(fetch.getInt(PAGESIZE));
+         if (fetch.has(VECTORS)) vectors = fetch.getBoolean(VECTORS);
       }
 
-      JSONArray rows = new JSONArray();
       ArrayList<Object[]> table = cursor.fetch();
 
       response.put("success",true);
@@ -97,8 +100,8 @@ public class Cursor
       if (cursor.primary())
          response.put("primary",true);
 
-      response.put("rows",rows);
-      for(Object[] row : table) rows.put(row);
+      if (!vectors) response.put("rows",new JSONRows(table));
+      else response.put("vectors",new JSONRows(table,true));
 
       return(new Response(response));
    }
@@ -29,15 +29,22 @@ import jsondb.Config;
 import jsondb.Session;
 import utils.JSONOObject;
 import org.json.JSONObject;
+import events.ForwardEvent;
 import state.StatePersistency;
 import java.util.logging.Level;
 import state.StatePersistency.ServerInfo;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class Forward
 {
    private final JSONObject response;
 
+   private static final AtomicLong bytes = new AtomicLong();
+   private static final AtomicLong failed = new AtomicLong();
+   private static final AtomicLong forwarded = new AtomicLong();
+
+
    public static Forward redirect(Session session, String object, JSONObject definition) throws Exception
    {
       if (Config.conTimeout() > 0 && session.forward())
@@ -55,10 +62,17 @@ public class Forward
       String request = "{\""+object+"\": "+definition.toString()+"}";
       ServerInfo info = StatePersistency.getServerInfo(session.inst());
 
+      ForwardEvent event = new ForwardEvent();
+      event.begin();
+
       try
       {
          Client client = new Client(info.endp);
          byte[] bytes = client.post(request);
+         event.record(session.inst(),bytes.length);
+
+         forwarded.incrementAndGet();
+         Forward.bytes.addAndGet(bytes.length);
 
          session.removeForeign();
          return(new JSONOObject(new String(bytes)));
@@ -66,6 +80,7 @@ public class Forward
       catch (Throwable t)
       {
          JSONOObject response = null;
+         failed.incrementAndGet();
 
          if (session.hasTrx())
          {
@@ -84,6 +99,27 @@ public class Forward
    }
 
 
+   /** Requests forwarded to the instance holding the session */
+   public static long forwarded()
+   {
+      return(forwarded.get());
+   }
+
+
+   /** Forwards that failed */
+   public static long failed()
+   {
+      return(failed.get());
+   }
+
+
+   /** Bytes received from forwarded requests */
+   public static long bytes()
+   {
+      return(bytes.get());
+   }
+
+
    private Forward(JSONObject response)
    {
       this.response = response;
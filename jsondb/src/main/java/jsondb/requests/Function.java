@@ -26,6 +26,7 @@ package jsondb.requests;
 
 import jsondb.Config;
 import jsondb.Session;
+import jsondb.Latency;
 import jsondb.Response;
 import database.SQLPart;
 import utils.JSONOObject;
@@ -80,6 +81,8 @@ public class Function
 
    public Response execute(Session session, sources.Function source) throws Exception
    {
+      long build = System.nanoTime();
+
       JSONObject response = new JSONOObject();
       JSONObject args = Utils.getMethod(definition,"execute");
       HashMap<String,BindValue> values = Utils.getBindValues(args);
@@ -96,7 +99,8 @@ public class Function
       }
 
       call.bindByValue();
-      response = session.executeCall(call.snippet(),call.bindValues(),source.update(),savepoint);
+      Latency.phase(Latency.BUILD,System.nanoTime()-build);
+      response = session.executeCall(source.id(),call.snippet(),call.bindValues(),source.update(),savepoint);
 
       response.put("success",true);
       response.put("session",sessid);
@@ -26,26 +26,50 @@ package jsondb.requests;
 
 import utils.Misc;
 import jsondb.Config;
+import jsondb.Latency;
 import jsondb.Response;
 import messages.Messages;
 import utils.JSONOObject;
 import java.util.HashMap;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import events.RequestEvent;
 import java.util.logging.Level;
-import java.lang.reflect.Method;
 
 
 public class RequestHandler
 {
-   private static final HashMap<String,Class<?>> classes =
-      new HashMap<String,Class<?>>()
+   private static final HashMap<String,RequestType<?>> types =
+      new HashMap<String,RequestType<?>>()
       {{
-         put("table",Table.class);
-         put("call",Function.class);
-         put("cursor",Cursor.class);
-         put("session",Session.class);
-         put("sql",SQLStatement.class);
+         put("table",new RequestType<Table>(Table::new)
+            .method("describe",Table::describe)
+            .method("insert",Table::insert)
+            .method("update",Table::update)
+            .method("delete",Table::delete)
+            .method("select",Table::select));
+
+         put("call",new RequestType<Function>(Function::new)
+            .method("execute",Function::execute));
+
+         put("cursor",new RequestType<Cursor>(Cursor::new)
+            .method("fetch",Cursor::fetch)
+            .method("close",Cursor::close));
+
+         put("session",new RequestType<Session>(Session::new)
+            .method("connect",Session::connect)
+            .method("disconnect",Session::disconnect)
+            .method("commit",Session::commit)
+            .method("rollback",Session::rollback)
+            .method("properties",Session::properties)
+            .method("keepalive",Session::keepalive));
+
+         put("sql",new RequestType<SQLStatement>(SQLStatement::new)
+            .method("insert",SQLStatement::insert)
+            .method("update",SQLStatement::update)
+            .method("delete",SQLStatement::delete)
+            .method("select",SQLStatement::select)
+            .method("execute",SQLStatement::execute));
       }};
 
 
@@ -113,13 +137,18 @@ public class RequestHandler
             if (invk.indexOf("()") > 0)
                invk = invk.substring(0,invk.length()-2);
 
-            Object dbrq = getInstance(names[0],payload);
-            Method method = dbrq.getClass().getMethod(invk);
-            return((Response) method.invoke(dbrq));
+            RequestEvent event = new RequestEvent();
+            event.begin();
+
+            long time = System.nanoTime();
+            Response response = getType(names[0]).invoke(invk,payload);
+
+            event.record(names[0],invk,payload.optString("session",null));
+            Latency.request(names[0],invk,payload.optString("source",null),System.nanoTime()-time);
+            return(response);
          }
          catch (Throwable t)
          {
-            if (t.getCause() != null) t = t.getCause();
             Config.logger().log(Level.WARNING,t.toString(),t);
 
             Response response = new Response().exception(t);
@@ -140,11 +169,57 @@ public class RequestHandler
    }
 
 
-   private static Object getInstance(String name, JSONObject definition) throws Exception
+   private static RequestType<?> getType(String name) throws Exception
    {
       name = name.toLowerCase();
-      Class<?> clazz = classes.get(name);
-      if (clazz == null) throw new Exception(Messages.get("UNKNOWN_REQUEST_TYPE",name));
-      return(clazz.getConstructor(JSONObject.class).newInstance(definition));
+      RequestType<?> type = types.get(name);
+      if (type == null) throw new Exception(Messages.get("UNKNOWN_REQUEST_TYPE",name));
+      return(type);
+   }
+
+
+   private interface Factory<T>
+   {
+      T create(JSONObject definition) throws Exception;
+   }
+
+
+   private interface Method<T>
+   {
+      Response invoke(T request) throws Exception;
+   }
+
+
+   /**
+    * The constructor and methods of a request type, registered once,
+    * so that requests are dispatched without reflection.
+    */
+   private static class RequestType<T>
+   {
+      private final Factory<T> factory;
+      private final HashMap<String,Method<T>> methods;
+
+      RequestType(Factory<T> factory)
+      {
+         this.factory = factory;
+         this.methods = new HashMap<String,Method<T>>();
+      }
+
+      RequestType<T> method(String name, Method<T> method)
+      {
+         methods.put(name,method);
+         return(this);
+      }
+
+      Response invoke(String name, JSONObject definition) throws Exception
+      {
+         T request = factory.create(definition);
+         Method<T> method = methods.get(name);
+
+         if (method == null)
+            throw new Exception(Messages.get("UNKNOWN_METHOD",name,request.getClass().getSimpleName()));
+
+         return(method.invoke(request));
+      }
    }
 }
\ No newline at end of file
@@ -27,7 +27,9 @@ package jsondb.requests;
 import utils.Misc;
 import jsondb.Config;
 import jsondb.Session;
+import jsondb.Latency;
 import jsondb.Response;
+import utils.JSONRows;
 import database.Column;
 import database.Cursor;
 import database.SQLPart;
@@ -55,6 +57,7 @@ public class SQLStatement
    private static final String SELECT = "select";
    private static final String EXECUTE = "execute";
    private static final String SESSION = "session";
+   private static final String VECTORS = "vectors";
    private static final String PAGESIZE = "page-size";
    private static final String SAVEPOINT = "savepoint";
 
@@ -193,6 +196,8 @@ public class SQLStatement
 
    public Response select(Session session, SQLSource source) throws Exception
    {
+      long build = System.nanoTime();
+
       BindValue used = null;
       JSONObject response = new JSONOObject();
       HashMap<String,BindValue> values = Utils.getBindValues(definition);
@@ -207,6 +212,9 @@ public class SQLStatement
       Boolean usecurs = Misc.get(args,CURSOR);
       if (usecurs == null) usecurs = true;
 
+      Boolean vectors = Misc.get(args,VECTORS);
+      if (vectors == null) vectors = false;
+
       if (select.bindValues().size() > 0 && values == null)
          throw new Exception(Messages.get("MISSING_BINDVALUES"));
 
@@ -224,10 +232,10 @@ public class SQLStatement
       Integer pagesize = null;
       if (args != null) pagesize = Misc.get(args,PAGESIZE); if (pagesize == null) pagesize = 0;
 
-      Cursor cursor = session.executeQuery(select.snippet(),select.bindValues(),savepoint,pagesize);
+      Latency.phase(Latency.BUILD,System.nanoTime()-build);
+      Cursor cursor = session.executeQuery(source.id(),select.snippet(),select.bindValues(),savepoint,pagesize);
       ArrayList<Column> columns = cursor.describe();
 
-      JSONArray rows = new JSONArray();
       ArrayList<Object[]> table = cursor.fetch();
 
       if (!usecurs) cursor.close();
@@ -255,8 +263,8 @@ public class SQLStatement
       if (cursor.primary())
          response.put("primary",true);
 
-      response.put("rows",rows);
-      for(Object[] row : table) rows.put(row);
+      if (!vectors) response.put("rows",new JSONRows(table));
+      else response.put("vectors",new JSONRows(table,true));
 
       return(new Response(response));
    }
@@ -264,6 +272,8 @@ public class SQLStatement
 
    public Response exeupdate(String method, Session session, SQLSource source) throws Exception
    {
+      long build = System.nanoTime();
+
       BindValue used = null;
       JSONObject response = new JSONOObject();
       ArrayList<BindValue> bindvalues = new ArrayList<BindValue>();
@@ -286,7 +296,8 @@ public class SQLStatement
       boolean savepoint = Config.dbconfig().savepoint(true);
       if (definition.has(SAVEPOINT)) savepoint = definition.getBoolean(SAVEPOINT);
 
-      response = session.executeUpdate(update.snippet(),update.bindValues(),null,savepoint);
+      Latency.phase(Latency.BUILD,System.nanoTime()-build);
+      response = session.executeUpdate(source.id(),update.snippet(),update.bindValues(),null,savepoint);
 
       response.put("success",true);
       response.put("session",sessid);
@@ -329,6 +340,8 @@ public class SQLStatement
 
    public Response execute(Session session, SQLSource source) throws Exception
    {
+      long build = System.nanoTime();
+
       BindValue used = null;
       SQLPart sql = source.sql();
       JSONObject response = new JSONOObject();
@@ -352,7 +365,8 @@ public class SQLStatement
       boolean savepoint = Config.dbconfig().savepoint(true);
       if (args.has(SAVEPOINT)) savepoint = args.getBoolean(SAVEPOINT);
 
-      boolean success = session.execute(sql.snippet(),update,savepoint);
+      Latency.phase(Latency.BUILD,System.nanoTime()-build);
+      boolean success = session.execute(source.id(),sql.snippet(),update,savepoint);
 
       response.put("success",success);
       response.put("session",sessid);
@@ -0,0 +1,211 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package jsondb.requests;
+
+import jsondb.Config;
+import java.util.Map;
+import jsondb.Session;
+import database.Keyset;
+import database.SQLPart;
+import utils.JSONOObject;
+import java.util.HashMap;
+import database.BindValue;
+import org.json.JSONObject;
+import java.util.ArrayList;
+import sources.TableSource;
+import filters.WhereClause;
+import java.util.LinkedHashMap;
+import filters.WhereClause.Context;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Select statements compiled from requests. Requests from the same screen tends to only differ
+ * in the values, so the statement is built once for each shape, that is source, columns, filters, order and locking.
+ * Later requests with the same shape only bind their values. Requests where the sql also depends on the values
+ * are never cached.
+ */
+public class SelectTemplate
+{
+   public final String sql;
+   public final boolean vpd;
+   public final boolean where;
+   public final boolean pkey;
+
+   private final Keyset keyset;
+   private final TableSource source;
+
+   private static final AtomicLong hits = new AtomicLong();
+   private static final AtomicLong misses = new AtomicLong();
+   private static final AtomicLong evicted = new AtomicLong();
+
+   private static final LinkedHashMap<String,SelectTemplate> cache =
+      new LinkedHashMap<String,SelectTemplate>(16,0.75f,true)
+      {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String,SelectTemplate> eldest)
+         {
+            if (size() <= Config.dbconfig().templates()) return(false);
+
+            evicted.incrementAndGet();
+            return(true);
+         }
+      };
+
+
+   /**
+    * The key for the request, or null if it cannot be cached.
+    */
+   public static String signature(Session session, TableSource source, Context context, JSONObject args, String[] columns, String order, boolean lock, boolean locknw, boolean seekable)
+   {
+      if (Config.dbconfig().templates() <= 0)
+         return(null);
+
+      if (args.has("assertions"))
+         return(null);
+
+      if (source.query != null && substitutes(source.query.query))
+         return(null);
+
+      if (source.vpd != null && substitutes(source.vpd.filter))
+         return(null);
+
+      String shape = WhereClause.shape(context,args);
+      if (shape == null) return(null);
+
+      String signature = JSONObject.quote(source.id);
+
+      for (int i = 0; columns != null && i < columns.length; i++)
+         signature += (i == 0 ? "\n" : ",") + JSONObject.quote(columns[i]);
+
+      if (order != null)
+         signature += "\norder "+JSONObject.quote(order);
+
+      if (lock) signature += "\nlock";
+      if (locknw) signature += " nowait";
+      if (seekable) signature += "\nseek";
+      if (session.isStateful()) signature += "\nstateful";
+
+      return(signature+"\n"+shape);
+   }
+
+
+   public static SelectTemplate get(String signature, TableSource source)
+   {
+      if (signature == null)
+         return(null);
+
+      SelectTemplate template = null;
+
+      synchronized(cache)
+      {
+         template = cache.get(signature);
+      }
+
+      // The source was reloaded since the template was made
+      if (template != null && template.source != source)
+         template = null;
+
+      if (template == null) misses.incrementAndGet();
+      else hits.incrementAndGet();
+
+      return(template);
+   }
+
+
+   public static void put(String signature, SelectTemplate template)
+   {
+      if (signature == null)
+         return;
+
+      synchronized(cache)
+      {
+         cache.put(signature,template);
+      }
+   }
+
+
+   public static JSONOObject stats()
+   {
+      JSONOObject stats = new JSONOObject();
+
+      synchronized(cache)
+      {
+         stats.put("templates",cache.size());
+      }
+
+      stats.put("hits",hits.get());
+      stats.put("misses",misses.get());
+      stats.put("evicted",evicted.get());
+
+      return(stats);
+   }
+
+
+   public SelectTemplate(TableSource source, String sql, Keyset keyset, boolean vpd, boolean where, boolean pkey)
+   {
+      this.sql = sql;
+      this.vpd = vpd;
+      this.pkey = pkey;
+      this.where = where;
+      this.source = source;
+      this.keyset = keyset;
+   }
+
+
+   /** A new keyset for the cursor, since the keyset holds the position */
+   public Keyset keyset()
+   {
+      if (keyset == null) return(null);
+      return(keyset.copy());
+   }
+
+
+   /**
+    * The statement with the values from the request, in the order they appear in the sql:
+    * the source, the filters and the vpd.
+    */
+   public SQLPart bind(Context context, JSONObject args, HashMap<String,BindValue> bindvalues) throws Exception
+   {
+      SQLPart from = source.from(bindvalues);
+      ArrayList<BindValue> bind = from.bindValues();
+
+      bind.addAll(WhereClause.bindvalues(context,args));
+
+      if (vpd)
+         bind.addAll(source.vpd.bind(context.session.getVPDInfo()).bindValues());
+
+      return(new SQLPart(sql,bind));
+   }
+
+
+   private static boolean substitutes(SQLPart part)
+   {
+      for(BindValue bv : part.bindValues())
+         if (bv.ampersand()) return(true);
+
+      return(false);
+   }
+}
@@ -27,10 +27,13 @@ package jsondb.requests;
 import utils.Misc;
 import jsondb.Config;
 import jsondb.Session;
+import jsondb.Latency;
 import database.Cursor;
 import sources.Sources;
 import jsondb.Response;
+import utils.JSONRows;
 import database.Column;
+import database.Keyset;
 import database.SQLPart;
 import database.SQLTypes;
 import database.DataType;
@@ -55,12 +58,15 @@ public class Table
    private final JSONObject definition;
 
    private static final String SET = "set";
+   private static final String KEY = "key";
+   private static final String ROWS = "rows";
    private static final String ORDER = "order";
    private static final String VALUE = "value";
    private static final String SOURCE = "source";
    private static final String COLUMN = "column";
    private static final String CURSOR = "cursor";
    private static final String VALUES = "values";
+   private static final String VECTORS = "vectors";
    private static final String FILTER = "filter";
    private static final String INSERT = "insert";
    private static final String UPDATE = "update";
@@ -186,6 +192,8 @@ public class Table
 
    public Response insert(Session session, TableSource source) throws Exception
    {
+      long build = System.nanoTime();
+
       if (!source.hasBaseObject())
          throw new Exception(Messages.get("INSERT_NO_BASEOBJECT",source));
 
@@ -201,6 +209,11 @@ public class Table
       String values = null;
 
       JSONArray colspec = args.getJSONArray(VALUES);
+
+      // Many rows
+      if (colspec.length() > 0 && colspec.get(0) instanceof JSONArray)
+         return(insert(session,source,args,colspec));
+
       ArrayList<BindValue> bindvalues = new ArrayList<BindValue>();
 
       for (int i = 0; i < colspec.length(); i++)
@@ -239,7 +252,86 @@ public class Table
       boolean savepoint = Config.dbconfig().savepoint(true);
       if (args.has(SAVEPOINT)) savepoint = args.getBoolean(SAVEPOINT);
 
-      JSONObject response = session.executeUpdate(insert.snippet(),insert.bindValues(),returning,savepoint);
+      Latency.phase(Latency.BUILD,System.nanoTime()-build);
+      JSONObject response = session.executeUpdate(source.id(),insert.snippet(),insert.bindValues(),returning,savepoint);
+
+      response.put("success",true);
+      response.put("session",sessid);
+      response.put("method","insert()");
+
+      return(new Response(response));
+   }
+
+
+   private Response insert(Session session, TableSource source, JSONObject args, JSONArray rows) throws Exception
+   {
+      long build = System.nanoTime();
+
+      String list = null;
+      String values = null;
+      String[] columns = null;
+
+      String[] returning = Misc.getJSONList(args,RETURNING,String.class);
+
+      ArrayList<ArrayList<BindValue>> bindvalues =
+         new ArrayList<ArrayList<BindValue>>();
+
+      for (int r = 0; r < rows.length(); r++)
+      {
+         JSONArray colspec = rows.getJSONArray(r);
+         ArrayList<BindValue> row = new ArrayList<BindValue>();
+
+         if (r == 0) columns = new String[colspec.length()];
+
+         if (colspec.length() != columns.length)
+            throw new Exception(Messages.get("BATCH_COLUMN_MISMATCH",source));
+
+         for (int i = 0; i < colspec.length(); i++)
+         {
+            JSONObject col = colspec.getJSONObject(i);
+
+            Object value = Misc.get(col,VALUE);
+            String column = col.getString(COLUMN);
+
+            if (r == 0)
+            {
+               columns[i] = column;
+
+               if (i == 0) list = column;
+               else list += "," + column;
+
+               if (i == 0) values = "?";
+               else values += "," + "?";
+            }
+
+            if (!column.equalsIgnoreCase(columns[i]))
+               throw new Exception(Messages.get("BATCH_COLUMN_MISMATCH",source));
+
+            BindValue bv = new BindValue(column).value(value);
+            DataType dt = source.basecolumns.get(column.toLowerCase());
+            if (dt != null) bv.type(dt.sqlid); row.add(bv);
+         }
+
+         if (returning != null)
+         {
+            for (int i = 0; i < returning.length; i++)
+            {
+               BindValue bv = new BindValue(returning[i]);
+               DataType dt = source.basecolumns.get(bv.name().toLowerCase());
+               if (dt != null) bv.type(dt.sqlid); row.add(bv);
+            }
+         }
+
+         bindvalues.add(row);
+      }
+
+      String stmt = "insert into "+source.object+" (" + list + ") values (" + values + ")";
+
+      boolean savepoint = Config.dbconfig().savepoint(true);
+      if (args.has(SAVEPOINT)) savepoint = args.getBoolean(SAVEPOINT);
+
+      Latency.phase(Latency.BUILD,System.nanoTime()-build);
+      JSONObject response = session.executeBatch(source.id(),stmt,bindvalues,returning,source.batchsize,savepoint);
 
       response.put("success",true);
       response.put("session",sessid);
@@ -282,6 +374,8 @@ public class Table
 
    public Response update(Session session, TableSource source) throws Exception
    {
+      long build = System.nanoTime();
+
       if (!source.hasBaseObject())
          throw new Exception(Messages.get("UPDATE_NO_BASEOBJECT",source));
 
@@ -294,6 +388,9 @@ public class Table
       String list = null;
       JSONObject args = Utils.getMethod(definition,UPDATE);
 
+      if (args.has(ROWS))
+         return(bulk(UPDATE,session,source,args));
+
       JSONArray colspec = args.getJSONArray(SET);
       ArrayList<BindValue> values = new ArrayList<BindValue>();
 
@@ -353,7 +450,8 @@ public class Table
       boolean savepoint = Config.dbconfig().savepoint(true);
       if (args.has(SAVEPOINT)) savepoint = args.getBoolean(SAVEPOINT);
 
-      JSONObject response = session.executeUpdate(update.snippet(),update.bindValues(),returning,savepoint);
+      Latency.phase(Latency.BUILD,System.nanoTime()-build);
+      JSONObject response = session.executeUpdate(source.id(),update.snippet(),update.bindValues(),returning,savepoint);
 
       response.put("success",true);
       response.put("session",sessid);
@@ -396,6 +494,8 @@ public class Table
 
    public Response delete(Session session, TableSource source) throws Exception
    {
+      long build = System.nanoTime();
+
       if (!source.hasBaseObject())
       throw new Exception(Messages.get("DELETE_NO_BASEOBJECT",source));
 
@@ -407,6 +507,9 @@ public class Table
 
       JSONObject args = Utils.getMethod(definition,DELETE);
 
+      if (args.has(ROWS))
+         return(bulk(DELETE,session,source,args));
+
       String stmt = "delete from "+source.object;
       SQLPart delete = new SQLPart(stmt);
 
@@ -451,7 +554,8 @@ public class Table
       boolean savepoint = Config.dbconfig().savepoint(true);
       if (args.has(SAVEPOINT)) savepoint = args.getBoolean(SAVEPOINT);
 
-      JSONObject response = session.executeUpdate(delete.snippet(),delete.bindValues(),returning,savepoint);
+      Latency.phase(Latency.BUILD,System.nanoTime()-build);
+      JSONObject response = session.executeUpdate(source.id(),delete.snippet(),delete.bindValues(),returning,savepoint);
 
       response.put("success",true);
       response.put("session",sessid);
@@ -494,6 +598,8 @@ public class Table
 
    public Response select(Session session, TableSource source) throws Exception
    {
+      long build = System.nanoTime();
+
       JSONObject response = new JSONOObject();
 
       AccessType limit = source.getAccessLimit("select");
@@ -513,6 +619,9 @@ public class Table
       Boolean usecurs = Misc.get(args,CURSOR);
       if (usecurs == null) usecurs = true;
 
+      Boolean vectors = Misc.get(args,VECTORS);
+      if (vectors == null) vectors = false;
+
       Boolean lock = Misc.get(args,FORUPDATE);
       if (lock == null) lock = false;
 
@@ -523,45 +632,94 @@ public class Table
       String order = Misc.getString(args,ORDER,false);
 
       String[] columns = Misc.getJSONList(args,COLUMNS,String.class);
-      String stmt = "select "+Utils.getColumnList(columns);
+      Integer pagesize = Misc.get(args,PAGESIZE); if (pagesize == null) pagesize = 0;
 
-      SQLPart select = new SQLPart(stmt);
-      select.append(source.from(bindvalues));
+      Keyset keyset = null;
+      SQLPart select = null;
+      WhereClause whcl = null;
+      WhereClause asrt = null;
 
+      // Only an ordered cursor can be resumed by key without changing its result
+      boolean seekable = usecurs && !lock && pagesize > 0 && order != null;
       Context context = new Context(session,source,true);
 
-      WhereClause whcl = new WhereClause(context,args);
-      WhereClause asrt = getAssertClause(context,args);
+      String signature = SelectTemplate.signature(session,source,context,args,columns,order,lock,locknw,seekable);
+      SelectTemplate template = SelectTemplate.get(signature,source);
 
-      if (limit == AccessType.ifwhereclause && !whcl.exists())
-         throw new Exception(Messages.get("NO_WHERE_CLAUSE"));
+      if (template != null)
+      {
+         if (limit == AccessType.ifwhereclause && !template.where)
+            throw new Exception(Messages.get("NO_WHERE_CLAUSE"));
 
-      if (limit == AccessType.byprimarykey && !whcl.usesPrimaryKey(source.primarykey))
-         throw new Exception(Messages.get("WHERE_PRIMARY_KEY",Messages.flatten(source.primarykey)));
+         if (limit == AccessType.byprimarykey && !template.pkey)
+            throw new Exception(Messages.get("WHERE_PRIMARY_KEY",Messages.flatten(source.primarykey)));
 
-      SQLPart wh = whcl.asSQL();
-      if (asrt != null) wh = whcl.append(asrt);
+         keyset = template.keyset();
+         select = template.bind(context,args,bindvalues);
+      }
+      else
+      {
+         String stmt = "select "+Utils.getColumnList(columns);
 
-      select.append(wh);
+         select = new SQLPart(stmt);
+         select.append(source.from(bindvalues));
 
-      if (source.vpd != null && source.vpd.appliesTo("select"))
-      {
-         SQLPart vpdflt = source.vpd.bind(session.getVPDInfo());
-         if (whcl.exists()) select.append("\nand",vpdflt);
-         else select.append("\nwhere",vpdflt);
-      }
+         String from = select.snippet();
+
+         whcl = new WhereClause(context,args);
+         asrt = getAssertClause(context,args);
 
-      if (order != null) select.append("\norder by "+order);
-      if (lock && session.isStateful()) select.append("\nfor update");
-      if (locknw && session.isStateful()) select.append("nowait");
+         if (limit == AccessType.ifwhereclause && !whcl.exists())
+            throw new Exception(Messages.get("NO_WHERE_CLAUSE"));
+
+         boolean pkey = limit == AccessType.byprimarykey && whcl.usesPrimaryKey(source.primarykey);
+
+         if (limit == AccessType.byprimarykey && !pkey)
+            throw new Exception(Messages.get("WHERE_PRIMARY_KEY",Messages.flatten(source.primarykey)));
+
+         SQLPart wh = whcl.asSQL();
+         if (asrt != null) wh = whcl.append(asrt);
+
+         select.append(wh);
+
+         boolean vpd = source.vpd != null && source.vpd.appliesTo("select");
+
+         if (vpd)
+         {
+            SQLPart vpdflt = source.vpd.bind(session.getVPDInfo());
+            if (whcl.exists()) select.append("\nand",vpdflt);
+            else select.append("\nwhere",vpdflt);
+         }
+
+         // Ordered pageable cursors are made unique by the primary key, so they can be reinstated by seeking
+         if (seekable)
+         {
+            String filter = select.snippet().substring(from.length()).trim();
+
+            if (filter.length() == 0 || filter.startsWith("where"))
+            {
+               filter = filter.length() == 0 ? null : filter.substring(5).trim();
+               keyset = Keyset.create(from,filter,order,columns,source.primarykey);
+            }
+         }
+
+         if (keyset != null) select.append("\norder by "+keyset.order());
+         else if (order != null) select.append("\norder by "+order);
+
+         if (lock && session.isStateful()) select.append("\nfor update");
+         if (locknw && session.isStateful()) select.append("nowait");
+
+         SelectTemplate.put(signature,new SelectTemplate(source,select.snippet(),keyset,vpd,whcl.exists(),pkey));
+         if (keyset != null) keyset = keyset.copy();
+      }
 
       boolean savepoint = Config.dbconfig().savepoint(false);
       if (args.has(SAVEPOINT)) savepoint = args.getBoolean(SAVEPOINT);
 
-      Integer pagesize = Misc.get(args,PAGESIZE); if (pagesize == null) pagesize = 0;
-      Cursor cursor = session.executeQuery(select.snippet(),select.bindValues(),savepoint,pagesize);
+      Latency.phase(Latency.BUILD,System.nanoTime()-build);
+      Cursor cursor = session.executeQuery(source.id(),select.snippet(),select.bindValues(),savepoint,pagesize);
+      cursor.keyset(keyset);
 
-      JSONArray rows = new JSONArray();
       ArrayList<Object[]> table = cursor.fetch();
 
       ArrayList<Column> sellist = null;
@@ -597,10 +755,10 @@ public class Table
       if (heading)
          response.put("columns",columns);
 
-      response.put("rows",rows);
-      for(Object[] row : table) rows.put(row);
+      if (!vectors) response.put("rows",new JSONRows(table));
+      else response.put("vectors",new JSONRows(table,true));
 
-      if (rows.length() == 0 && asrt != null)
+      if (table.size() == 0 && asrt != null)
       {
          String cols = null;
          ArrayList<NameValuePair<Object>> asserts = getAssertions(args);
@@ -668,6 +826,204 @@ public class Table
    }
 
 
+   /**
+    * Update or delete many rows, each identified by its primary key. All rows must set the same columns
+    * and assert the same columns, so that one statement can be run in batches. Rows that were not affected
+    * and has assertions, are checked and reported as when selecting with assertions.
+    */
+   private Response bulk(String method, Session session, TableSource source, JSONObject args) throws Exception
+   {
+      long build = System.nanoTime();
+
+      if (source.primarykey.size() == 0)
+         throw new Exception(Messages.get("BULK_NO_PRIMARY_KEY",source));
+
+      String[] setcols = new String[0];
+      String[] asscols = new String[0];
+
+      JSONArray rows = args.getJSONArray(ROWS);
+      ArrayList<String> pkey = source.primarykey;
+      String[] returning = Misc.getJSONList(args,RETURNING,String.class);
+
+      ArrayList<ArrayList<BindValue>> bindvalues =
+         new ArrayList<ArrayList<BindValue>>();
+
+      ArrayList<ArrayList<NameValuePair<Object>>> assertions =
+         new ArrayList<ArrayList<NameValuePair<Object>>>();
+
+      SQLPart vpdflt = null;
+
+      if (source.vpd != null && source.vpd.appliesTo(method))
+         vpdflt = source.vpd.bind(session.getVPDInfo());
+
+      for (int r = 0; r < rows.length(); r++)
+      {
+         JSONObject row = rows.getJSONObject(r);
+         ArrayList<BindValue> binds = new ArrayList<BindValue>();
+
+         if (method.equals(UPDATE))
+         {
+            JSONArray set = row.getJSONArray(SET);
+            if (r == 0) setcols = new String[set.length()];
+
+            if (set.length() != setcols.length)
+               throw new Exception(Messages.get("BULK_ROW_MISMATCH",source));
+
+            for (int i = 0; i < set.length(); i++)
+            {
+               JSONObject col = set.getJSONObject(i);
+
+               Object value = Misc.get(col,VALUE);
+               String column = col.getString(COLUMN);
+
+               if (r == 0) setcols[i] = column;
+
+               if (!column.equalsIgnoreCase(setcols[i]))
+                  throw new Exception(Messages.get("BULK_ROW_MISMATCH",source));
+
+               binds.add(bindvalue(source,column,value));
+            }
+         }
+
+         // Each row must be restricted by the complete primary key
+         JSONArray key = row.getJSONArray(KEY);
+
+         if (key.length() != pkey.size())
+            throw new Exception(Messages.get("WHERE_PRIMARY_KEY",Messages.flatten(pkey)));
+
+         for (int i = 0; i < key.length(); i++)
+            binds.add(bindvalue(source,pkey.get(i),key.get(i)));
+
+         ArrayList<NameValuePair<Object>> asserts = new ArrayList<NameValuePair<Object>>();
+         if (row.has(ASSERTIONS)) asserts = getAssertions(row);
+
+         if (r == 0)
+         {
+            asscols = new String[asserts.size()];
+            for (int i = 0; i < asscols.length; i++) asscols[i] = asserts.get(i).name();
+         }
+
+         if (asserts.size() != asscols.length)
+            throw new Exception(Messages.get("BULK_ROW_MISMATCH",source));
+
+         for (int i = 0; i < asserts.size(); i++)
+         {
+            if (!asserts.get(i).name().equalsIgnoreCase(asscols[i]))
+               throw new Exception(Messages.get("BULK_ROW_MISMATCH",source));
+
+            binds.add(bindvalue(source,asscols[i],asserts.get(i).value()));
+         }
+
+         if (vpdflt != null)
+            binds.addAll(vpdflt.clone().bindValues());
+
+         if (returning != null)
+         {
+            for (int i = 0; i < returning.length; i++)
+               binds.add(bindvalue(source,returning[i],null));
+         }
+
+         assertions.add(asserts);
+         bindvalues.add(binds);
+      }
+
+      String stmt = null;
+
+      if (method.equals(DELETE))
+      {
+         stmt = "delete from "+source.object;
+      }
+      else
+      {
+         stmt = "update "+source.object+" set ";
+
+         for (int i = 0; i < setcols.length; i++)
+            stmt += (i == 0 ? "" : ", ") + setcols[i]+" = ?";
+      }
+
+      String pkwh = "";
+
+      for (int i = 0; i < pkey.size(); i++)
+         pkwh += (i == 0 ? "" : " and ") + pkey.get(i)+" = ?";
+
+      stmt += "\nwhere "+pkwh;
+
+      for (int i = 0; i < asscols.length; i++)
+         stmt += " and "+asscols[i]+" = ?";
+
+      if (vpdflt != null)
+         stmt += "\nand "+vpdflt.snippet();
+
+      boolean savepoint = Config.dbconfig().savepoint(true);
+      if (args.has(SAVEPOINT)) savepoint = args.getBoolean(SAVEPOINT);
+
+      Latency.phase(Latency.BUILD,System.nanoTime()-build);
+      JSONObject response = session.executeBatch(source.id(),stmt,bindvalues,returning,source.batchsize,savepoint);
+
+      if (asscols.length > 0)
+      {
+         String cols = null;
+         SQLPart selvpd = null;
+         JSONArray failed = new JSONArray();
+         JSONArray counts = response.getJSONArray("counts");
+
+         // The failed rows are only re-read, if the session could have selected them
+         boolean reread = source.getAccessLimit("select") != AccessType.denied;
+
+         if (source.vpd != null && source.vpd.appliesTo("select"))
+            selvpd = source.vpd.bind(session.getVPDInfo());
+
+         for (int i = 0; i < asscols.length; i++)
+         {
+            if (i == 0) cols = asscols[i];
+            else cols += "," + asscols[i];
+         }
+
+         for (int r = 0; r < counts.length(); r++)
+         {
+            if (counts.getInt(r) != 0)
+               continue;
+
+            if (!reread)
+            {
+               failed.put(new JSONOObject().put("row",r));
+               continue;
+            }
+
+            ArrayList<BindValue> keyvals = new ArrayList<BindValue>();
+            int offset = setcols.length;
+
+            for (int i = 0; i < pkey.size(); i++)
+               keyvals.add(bindvalues.get(r).get(offset+i));
+
+            SQLPart select = new SQLPart("select "+cols+" from "+source.object+"\nwhere "+pkwh,keyvals);
+            if (selvpd != null) select.append("\nand",selvpd.clone());
+
+            JSONOObject assertion = getAssertResponse(session,select,assertions.get(r));
+            assertion.put("row",r);
+            failed.put(assertion);
+         }
+
+         if (failed.length() > 0)
+            response.put("assertions",failed);
+      }
+
+      response.put("success",true);
+      response.put("session",sessid);
+      response.put("method",method+"()");
+
+      return(new Response(response));
+   }
+
+
+   private BindValue bindvalue(TableSource source, String column, Object value)
+   {
+      BindValue bv = new BindValue(column).value(value);
+      DataType dt = source.basecolumns.get(column.toLowerCase());
+      if (dt != null) bv.type(dt.sqlid); return(bv);
+   }
+
+
    private WhereClause getAssertClause(Context context, JSONObject def) throws Exception
    {
       if (!def.has(ASSERTIONS))
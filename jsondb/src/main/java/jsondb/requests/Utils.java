@@ -26,6 +26,7 @@ package jsondb.requests;
 
 import sources.Source;
 import jsondb.Session;
+import jsondb.Latency;
 import sources.Sources;
 import database.Cursor;
 import java.util.HashMap;
@@ -113,6 +114,7 @@ public class Utils
    {
       Session session = null;
       boolean losttrx = false;
+      long time = System.nanoTime();
 
       try
       {
@@ -124,6 +126,8 @@ public class Utils
             losttrx = true;
       }
 
+      Latency.phase(Latency.SESSION,System.nanoTime()-time);
+
       if (session == null)
       {
          response.put("success",false);
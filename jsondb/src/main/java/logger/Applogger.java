@@ -39,6 +39,7 @@ public class Applogger
    private static final String SIZE = "size";
    private static final String LEVEL = "level";
    private static final String FILES = "files";
+   private static final String QUEUE = "queue-size";
 
    private static final String LOGFLD = "logs";
    private static final String LOGDEF = "logger";
@@ -71,9 +72,13 @@ public class Applogger
          out.close();
       }
 
-      FileHandler handler = new FileHandler(path,fsize,files,true);
+      FileHandler writer = new FileHandler(path,fsize,files,true);
+      writer.setFormatter(new Formatter());
 
-      handler.setFormatter(new Formatter());
+      // Records are written by a background thread, unless the queue is disabled
+      Handler handler = writer;
+      int queue = logd.optInt(QUEUE,8192);
+      if (queue > 0) handler = new AsyncHandler(writer,queue);
       Logger logger = Logger.getLogger("JsonWebDB");
 
       logger.setLevel(level);
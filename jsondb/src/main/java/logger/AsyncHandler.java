@@ -0,0 +1,195 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package logger;
+
+import java.util.logging.Level;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ArrayBlockingQueue;
+
+
+/**
+ * Hands log records to a background thread, that writes them with the target handler.
+ * The queue is bounded. When it is full, records below warning are dropped and counted,
+ * while warnings and errors waits for room, so they are never lost.
+ * The handler is closed by the LogManager at shutdown. Warnings and errors
+ * published after that are written directly with the target handler.
+ */
+public class AsyncHandler extends Handler
+{
+   private final Handler target;
+   private final Thread writer;
+   private final ArrayBlockingQueue<LogRecord> queue;
+   private final AtomicLong dropped = new AtomicLong();
+
+   private volatile boolean closed = false;
+
+
+   public AsyncHandler(Handler target, int size)
+   {
+      this.target = target;
+      this.queue = new ArrayBlockingQueue<LogRecord>(size);
+
+      this.writer = new Thread(this::write,"AsyncLogger");
+      this.writer.setDaemon(true);
+      this.writer.start();
+   }
+
+
+   public long dropped()
+   {
+      return(dropped.get());
+   }
+
+
+   @Override
+   public void publish(LogRecord record)
+   {
+      if (!isLoggable(record))
+         return;
+
+      if (closed)
+      {
+         direct(record);
+         return;
+      }
+
+      // The caller is found from the stack, so it must be done on this thread
+      record.getSourceClassName();
+
+      if (!queue.offer(record))
+      {
+         if (record.getLevel().intValue() < Level.WARNING.intValue())
+         {
+            dropped.incrementAndGet();
+            return;
+         }
+
+         try
+         {
+            // Wait for room, but not for a writer that has been stopped
+            while (!queue.offer(record,100,TimeUnit.MILLISECONDS))
+            {
+               if (closed) {direct(record); return;}
+            }
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+      }
+
+      // Closed while queueing, the writer might have missed it
+      if (closed) synchronized(this) {drain();}
+   }
+
+
+   @Override
+   public void flush()
+   {
+      target.flush();
+   }
+
+
+   @Override
+   public synchronized void close()
+   {
+      if (closed) return;
+      closed = true;
+
+      writer.interrupt();
+
+      try {writer.join(TimeUnit.SECONDS.toMillis(5));}
+      catch (InterruptedException e) {Thread.currentThread().interrupt();}
+
+      drain();
+      target.close();
+   }
+
+
+   private void write()
+   {
+      while (!closed)
+      {
+         try
+         {
+            LogRecord record = queue.take();
+
+            report();
+            target.publish(record);
+
+            if (queue.isEmpty())
+               target.flush();
+         }
+         catch (InterruptedException e)
+         {
+            break;
+         }
+         catch (Throwable t)
+         {
+            reportError(null,new Exception(t),ErrorManager.WRITE_FAILURE);
+         }
+      }
+   }
+
+
+   private synchronized void direct(LogRecord record)
+   {
+      if (record.getLevel().intValue() < Level.WARNING.intValue())
+         return;
+
+      target.publish(record);
+      target.flush();
+   }
+
+
+   private void drain()
+   {
+      LogRecord record = null;
+
+      report();
+
+      while ((record = queue.poll()) != null)
+         target.publish(record);
+
+      target.flush();
+   }
+
+
+   private void report()
+   {
+      long lost = dropped.getAndSet(0);
+      if (lost == 0) return;
+
+      LogRecord record = new LogRecord(Level.WARNING,"Log queue full, dropped "+lost+" records");
+      record.setSourceClassName(AsyncHandler.class.getName());
+      record.setSourceMethodName("publish");
+
+      target.publish(record);
+   }
+}
@@ -21,50 +21,93 @@
 
 package logger;
 
-import java.util.Date;
+import java.time.ZoneId;
+import java.time.Instant;
 import java.io.PrintStream;
-import java.text.SimpleDateFormat;
 import java.util.logging.LogRecord;
 import java.io.ByteArrayOutputStream;
+import java.time.format.DateTimeFormatter;
 
 
 public class Formatter extends java.util.logging.Formatter
 {
   private final static String nl = System.lineSeparator();
-  private final static SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+  private final static DateTimeFormatter df =
+    DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+  // Records come in bursts, the text is reused within the same second
+  private static volatile Stamp stamp = new Stamp(-1,null);
 
 
   @Override
   public String format(LogRecord record)
   {
-    String date = df.format(new Date());
+    String date = timestamp(record.getMillis());
     String location = record.getSourceClassName()+"."+record.getSourceMethodName();
 
     if (location.length() > 40)
       location = "..."+location.substring(location.length()-40);
 
-    String message = ": "+record.getMessage();
-    String level = String.format("%-7s",record.getLevel().toString());
-    String source = String.format("%-45s",location);
-
-    StringBuffer entry = new StringBuffer();
+    StringBuilder entry = new StringBuilder(128);
     boolean exception = (record.getThrown() != null);
 
     entry.append(date);
 
     if (!exception)
     {
-      entry.append(" "+level);
-      entry.append(" "+source);
+      entry.append(' ');
+      pad(entry,record.getLevel().toString(),7);
+      entry.append(' ');
+      pad(entry,location,45);
+      entry.append(": ").append(record.getMessage());
     }
     else
     {
       ByteArrayOutputStream out = new ByteArrayOutputStream();
       record.getThrown().printStackTrace(new PrintStream(out));
-      message = " SEVERE  "+source+":"+nl+nl+new String(out.toByteArray());
+
+      entry.append(" SEVERE  ");
+      pad(entry,location,45);
+      entry.append(":").append(nl).append(nl).append(new String(out.toByteArray()));
     }
 
-    entry.append(message+nl);
+    entry.append(nl);
     return(entry.toString());
   }
-}
\ No newline at end of file
+
+
+  private static String timestamp(long millis)
+  {
+    Stamp stamp = Formatter.stamp;
+    long second = Math.floorDiv(millis,1000);
+
+    if (stamp.second != second)
+    {
+      stamp = new Stamp(second,df.format(Instant.ofEpochMilli(millis)));
+      Formatter.stamp = stamp;
+    }
+
+    return(stamp.text);
+  }
+
+
+  private static void pad(StringBuilder entry, String value, int width)
+  {
+    entry.append(value);
+    for (int i = value.length(); i < width; i++) entry.append(' ');
+  }
+
+
+  private static class Stamp
+  {
+    final long second;
+    final String text;
+
+    Stamp(long second, String text)
+    {
+      this.text = text;
+      this.second = second;
+    }
+  }
+}
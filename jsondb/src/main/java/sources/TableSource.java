@@ -47,12 +47,14 @@ public class TableSource implements Source
    private static final String QUERY = "query";
    private static final String ORDER = "order";
    private static final String OBJECT = "object";
+   private static final String BATCH = "batch-size";
    private static final String PRIMARY = "primary-key";
    private static final String WHCLAUSE = "where-clause";
    private static final String CUSTOMFLTS = "custom-filters";
 
    public final String id;
    public final String order;
+   public final int batchsize;
    public final String object;
    public final Access access;
    public final VPDFilter vpd;
@@ -70,6 +72,9 @@ public class TableSource implements Source
       String object = getString(definition,OBJECT,false);
       String[] primarykey = getStringArray(definition,PRIMARY,false);
 
+      Integer batchsize = get(definition,BATCH);
+      if (batchsize == null || batchsize <= 0) batchsize = 100;
+
       id = id.toLowerCase();
 
       Access access = new Access(definition);
@@ -82,6 +87,7 @@ public class TableSource implements Source
       this.query = query;
       this.order = order;
       this.object = object;
+      this.batchsize = batchsize;
       this.access = access;
       this.filters = filters;
       this.primarykey = new ArrayList<String>();
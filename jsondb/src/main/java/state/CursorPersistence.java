@@ -0,0 +1,47 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package state;
+
+
+/**
+ * When to write cursor position and costs to the state store.
+ * Eager after every fetch, OnOffline only when the cursor is taken offline
+ * or the instance stops, Interval also after a fetch if not written recently.
+ */
+public enum CursorPersistence
+{
+   Eager,
+   Interval,
+   OnOffline;
+
+   public static CursorPersistence getType(String name)
+   {
+      switch(name.toLowerCase())
+      {
+         case "interval" : return(Interval);
+         case "on-offline" : return(OnOffline);
+         default: return(Eager);
+      }
+   }
+}
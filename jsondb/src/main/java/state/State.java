@@ -29,7 +29,7 @@ import jsondb.Config;
 import jsondb.Session;
 import database.Cursor;
 import messages.Messages;
-import java.util.HashSet;
+import java.util.Set;
 import database.SQLTypes;
 import org.json.JSONObject;
 import java.util.ArrayList;
@@ -39,16 +39,15 @@ import java.util.concurrent.ConcurrentHashMap;
 
 public class State
 {
-   private static Object[] LOCKS;
-
    private static ConcurrentHashMap<String,Cursor> cursors =
       new ConcurrentHashMap<String,Cursor>();
 
    private static ConcurrentHashMap<String,Session> sessions =
       new ConcurrentHashMap<String,Session>();
 
-   private static ConcurrentHashMap<String,HashSet<String>> cursesmap =
-      new ConcurrentHashMap<String,HashSet<String>>();
+   // Keyed by the session object, so a session registered again under the same guid gets its own set
+   private static ConcurrentHashMap<Session,Set<String>> cursesmap =
+      new ConcurrentHashMap<Session,Set<String>>();
 
 
    public static void main(String[] args) throws Exception
@@ -60,129 +59,102 @@ public class State
    }
 
 
-   public static void initialize()
+   /**
+    * Register the session. If another thread registered the same
+    * session first, that session is returned instead.
+    * A registered session holds one reference for the registry,
+    * a session returned instead holds one extra for the caller.
+    */
+   public static Session addSession(Session session)
    {
-      int locks = 1024;
-      LOCKS = new Object[locks];
+      session.up();
 
-      for (int i = 0; i < LOCKS.length; i++)
-         LOCKS[i] = new Object();
-   }
+      while (true)
+      {
+         Session current = sessions.putIfAbsent(session.guid(),session);
 
+         if (current == null) return(session);
+         if (current.up() != null) return(current);
 
-   public static void addSession(Session session)
-   {
-      synchronized(getLock(session))
-      {sessions.put(session.guid(),session.up());}
+         // Being removed
+         sessions.remove(session.guid(),current);
+      }
    }
 
    public static boolean hasSession(String guid)
    {
-      synchronized(getLock(guid))
-      {return(sessions.get(guid) != null);}
+      return(sessions.containsKey(guid));
+   }
+
+   public static boolean hasSession(Session session)
+   {
+      return(sessions.get(session.guid()) == session);
    }
 
    public static Session getSession(String guid)
    {
-      synchronized(getLock(guid))
-      {
-         Session session = sessions.get(guid);
-         if (session != null) session.up();
-         return(session);
-      }
+      Session session = sessions.get(guid);
+      if (session == null) return(null);
+      return(session.up());
    }
 
 
    public static boolean removeSession(String guid)
    {
-      synchronized(getLock(guid))
-      {
-         Session session = sessions.get(guid);
+      Session session = sessions.get(guid);
 
-         if (session == null) return(true);
-         if (session.clients() != 1) return(false);
+      if (session == null) return(true);
+      if (!session.retire()) return(false);
 
-         sessions.remove(guid);
-         HashSet<String> sescurs = cursesmap.remove(guid);
+      sessions.remove(guid,session);
+      Set<String> sescurs = cursesmap.remove(session);
 
-         if (sescurs != null) for(String cursid : sescurs)
-            cursors.remove(cursid);
+      if (sescurs != null) for(String cursid : sescurs)
+         cursors.remove(cursid);
 
-         return(true);
-      }
+      return(true);
    }
 
 
    public static void addCursor(Cursor cursor)
    {
-      synchronized(cursor.session())
-      {
-         cursors.put(cursor.guid(),cursor);
-
-         String sessid = cursor.session().guid();
-         HashSet<String> sescurs = cursesmap.get(sessid);
-
-         if (sescurs == null)
-         {
-            sescurs = new HashSet<String>();
-            cursesmap.put(cursor.session().guid(),sescurs);
-         }
-
-         sescurs.add(cursor.guid());
-      }
+      cursors.put(cursor.guid(),cursor);
+      cursesmap.computeIfAbsent(cursor.session(),(session) -> ConcurrentHashMap.newKeySet()).add(cursor.guid());
    }
 
 
    public static Cursor getCursor(Session session, String guid)
    {
-      synchronized(session)
-      {return(cursors.get(guid));}
+      return(cursors.get(guid));
    }
 
 
    public static boolean removeCursor(Cursor cursor) throws Exception
    {
-      synchronized(cursor.session())
-      {
-         cursors.remove(cursor.guid());
-
-         String sessid = cursor.session().guid();
-         HashSet<String> sescurs = cursesmap.get(sessid);
-
-         if (sescurs == null)
-            throw new Exception(Messages.get("CANNOT_REMOVE_CURSOR",cursor.guid()));
+      cursors.remove(cursor.guid());
 
-         sescurs.remove(cursor.guid());
+      Set<String> sescurs = cursesmap.get(cursor.session());
 
-         if (sescurs.size() == 0)
-            cursesmap.remove(sessid);
+      if (sescurs == null)
+         throw new Exception(Messages.get("CANNOT_REMOVE_CURSOR",cursor.guid()));
 
-         return(true);
-      }
+      // The set is removed with the session
+      sescurs.remove(cursor.guid());
+      return(true);
    }
 
 
-   public static ArrayList<Cursor> getAllCursors(String sessid)
+   public static ArrayList<Cursor> getAllCursors(Session session)
    {
-      Session session = null;
       ArrayList<Cursor> cursors = new ArrayList<Cursor>();
 
-      synchronized(getLock(sessid))
-      {
-         session = sessions.get(sessid);
-         if (session == null) return(cursors);
-      }
+      Set<String> sescurs = cursesmap.get(session);
+      if (sescurs == null) return(cursors);
 
-      synchronized(session)
+      for(String cursid : sescurs)
       {
-         HashSet<String> sescurs = cursesmap.get(sessid);
-         if (sescurs == null) return(cursors);
-
-         for(String cursid : sescurs)
-         {
-            Cursor cursor = State.cursors.get(cursid);
-            cursors.add(cursor);
-         }
+         Cursor cursor = State.cursors.get(cursid);
+         if (cursor != null) cursors.add(cursor);
       }
 
       return(cursors);
@@ -199,16 +171,4 @@ public class State
    {
       return(sessions.values());
    }
-
-
-   private static Object getLock(Session session)
-   {
-      return(getLock(session.guid()));
-   }
-
-
-   private static Object getLock(String guid)
-   {
-      return(LOCKS[Math.abs(guid.hashCode() % LOCKS.length)]);
-   }
-}
\ No newline at end of file
+}
@@ -29,15 +29,18 @@ import utils.Bytes;
 import java.io.File;
 import jsondb.Config;
 import java.util.Date;
+import java.util.Arrays;
+import database.Cursor;
 import java.util.HashMap;
 import utils.JSONOObject;
 import database.BindValue;
 import org.json.JSONArray;
 import org.json.JSONObject;
-import java.io.FilenameFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.RandomAccessFile;
+import state.definitions.StateStore;
+import state.implementations.LogStore;
+import state.implementations.FileStore;
 
 
 public class StatePersistency
@@ -45,7 +48,15 @@ public class StatePersistency
    private static long pid;
 
    private static String inst = null;
-   private static String path = null;
+   private static StateStore store = null;
+   private static TouchJournal journal = null;
+
+   private static int swept = 0;
+   private static long listed = 0;
+   private static String[] sweep = null;
+
+   private static long curinterval = 0;
+   private static CursorPersistence curpolicy = CursorPersistence.Eager;
 
    private static final String PID = "pid";
    private static final String SES = "ses";
@@ -53,14 +64,22 @@ public class StatePersistency
    private static final String CLI = "cli";
    private static final String TRX = "trx";
    private static final String CUR = "cur";
+   private static final String LOGS = "log";
    private static final String STATE = "state";
    private static final String INSTANCES = "instances";
 
+   private static final String STORE = "store";
+   private static final String REFRESH = "refresh";
+   private static final String COMPACTION = "compaction";
+   private static final String TOUCHINTERVAL = "touch-interval";
+   private static final String CURSORPOLICY = "cursor-persistence";
+   private static final String CURSORINTERVAL = "cursor-interval";
+   private static final String SEGMENTSIZE = "segment-size";
+
 
    public static void initialize() throws Exception
    {
       StatePersistency.inst = Config.inst();
-      StatePersistency.path = Config.path(STATE);
       StatePersistency.pid = ProcessHandle.current().pid();
 
       File folders = new File(Config.path(STATE,INSTANCES));
@@ -69,11 +88,117 @@ public class StatePersistency
       ServerInfo server = new ServerInfo(pid,Config.endp());
       server.save(pidFile(inst));
 
-      Thread shutdown = new Thread(() -> StatePersistency.pidFile(inst).delete());
+      JSONObject def = Config.get(STATE);
+
+      StatePersistency.store = getStore(def);
+      StatePersistency.journal = getJournal(def);
+
+      if (def != null && def.has(CURSORPOLICY))
+         curpolicy = CursorPersistence.getType(def.getString(CURSORPOLICY));
+
+      if (def != null && def.has(CURSORINTERVAL))
+         curinterval = def.getLong(CURSORINTERVAL);
+
+      Thread shutdown = new Thread(() ->
+      {
+         StatePersistency.pidFile(inst).delete();
+
+         // Hand off cursors to other instances
+         for(Cursor cursor : State.cursors())
+         {
+            try {cursor.persist();}
+            catch (Exception e) {}
+         }
+
+         try {StatePersistency.journal.flush();} catch (Exception e) {}
+         try {StatePersistency.store.close();} catch (Exception e) {}
+      });
+
       Runtime.getRuntime().addShutdownHook(shutdown);
    }
 
 
+   private static StateStore getStore(JSONObject def) throws Exception
+   {
+      String type = "file";
+
+      if (def != null && def.has(STORE))
+         type = def.getString(STORE).toLowerCase();
+
+      if (type.equals("file"))
+         return(new FileStore(Config.path(STATE),INSTANCES,LOGS));
+
+      if (!type.equals("log"))
+         throw new Exception("Unknown state store '"+type+"'");
+
+      // Defaults: 64MB segments, look for new segments every second, compact every minute
+      long segsize = 64, refresh = 1000, compaction = 60;
+
+      if (def.has(SEGMENTSIZE)) segsize = def.getLong(SEGMENTSIZE);
+      if (def.has(REFRESH)) refresh = def.getLong(REFRESH);
+      if (def.has(COMPACTION)) compaction = def.getLong(COMPACTION);
+
+      // Keep tombstones until deleted records can no longer be relevant
+      long keep = 2L * Config.sesTimeout() * 1000;
+
+      Config.logger().info("Using log-structured state store, segment-size "+segsize+"MB");
+      return(new LogStore(Config.path(STATE,LOGS),inst,segsize*1024*1024,refresh,compaction*1000,keep));
+   }
+
+
+   private static TouchJournal getJournal(JSONObject def)
+   {
+      long interval = 1000;
+      long sestmout = Config.sesTimeout() * 1000L;
+
+      if (def != null && def.has(TOUCHINTERVAL))
+         interval = def.getLong(TOUCHINTERVAL);
+
+      // Other instances removes sessions that has not been touched within the timeout
+      if (sestmout > 0 && interval > sestmout/4)
+      {
+         interval = sestmout/4;
+         Config.logger().warning("touch-interval must be well below session-timeout, using "+interval+"ms");
+      }
+
+      return(new TouchJournal(store,interval));
+   }
+
+
+   /** When to write cursor state */
+   public static CursorPersistence cursorPersistence()
+   {
+      return(curpolicy);
+   }
+
+
+   /** Millis between writes of cursor state, when using interval */
+   public static long cursorInterval()
+   {
+      return(curinterval);
+   }
+
+
+   /** Statistics on touches merged by the write-behind journal */
+   public static JSONOObject getTouchStats()
+   {
+      if (journal == null) return(null);
+      return(journal.stats());
+   }
+
+
+   private static StateStore store() throws Exception
+   {
+      if (store != null)
+         return(store);
+
+      // Not running, i.e. listing the state from the command line
+      File logs = new File(Config.path(STATE,LOGS));
+      if (logs.exists()) return(LogStore.reader(logs.getPath()));
+      return(new FileStore(Config.path(STATE),INSTANCES,LOGS));
+   }
+
+
    public static JSONObject list() throws Exception
    {
       JSONOObject response = new JSONOObject();
@@ -83,8 +208,9 @@ public class StatePersistency
 
       if (root.exists())
       {
+         StateStore store = store();
          File[] procs = proc.listFiles();
-         File[] state = root.listFiles();
+         if (procs == null) procs = new File[0];
 
          JSONArray processes = new JSONArray();
          response.put("processes",processes);
@@ -109,19 +235,16 @@ public class StatePersistency
          JSONArray sessions = new JSONArray();
          response.put("sessions",sessions);
 
-         for(File file : state)
+         for(String guid : store.sessions())
          {
-            if (!file.isDirectory())
-               continue;
-
-            if (file.getName().equals(INSTANCES))
-               continue;
+            byte[] bytes = store.read(guid,sesName(guid));
+            if (bytes == null) continue;
 
             JSONOObject entry = new JSONOObject();
             sessions.put(entry);
 
-            File session = sesFile(root,file.getName());
-            SessionInfo sinfo = new SessionInfo(session,inst);
+            long modified = store.modified(guid,sesName(guid));
+            SessionInfo sinfo = new SessionInfo(guid,bytes,modified,inst);
 
             entry.put("pid",sinfo.pid);
             entry.put("online",sinfo.online);
@@ -131,7 +254,7 @@ public class StatePersistency
             entry.put("username",sinfo.user);
             entry.put("stateful",sinfo.stateful);
 
-            File[] cursors = file.listFiles(FileType.get(CUR));
+            String[] cursors = store.list(guid,CUR);
 
             if (cursors.length > 0)
             {
@@ -139,9 +262,12 @@ public class StatePersistency
 
                entry.put("cursors",clist);
 
-               for(File curs : cursors)
+               for(String curs : cursors)
                {
-                  CursorInfo cinfo = new CursorInfo(curs);
+                  byte[] def = store.read(guid,curName(curs));
+                  if (def == null) continue;
+
+                  CursorInfo cinfo = new CursorInfo(curs,def);
                   JSONOObject json = (JSONOObject) cinfo.json;
 
                   JSONArray bind = new JSONArray();
@@ -170,6 +296,9 @@ public class StatePersistency
                }
             }
          }
+
+         if (store != StatePersistency.store)
+            store.close();
       }
 
       return(response);
@@ -192,16 +321,9 @@ public class StatePersistency
       while (!done)
       {
          guid = Guid.generate();
-         File file = sesFile(guid);
-
-         if (!file.exists())
-         {
-            done = true;
-            sesPath(guid).mkdirs();
 
-            SessionInfo info = new SessionInfo(pid,guid,inst,user,stateful);
-            info.save(file);
-         }
+         SessionInfo info = new SessionInfo(pid,guid,inst,user,stateful);
+         done = store.create(guid,sesName(guid),info.bytes());
       }
 
       return(guid);
@@ -211,7 +333,6 @@ public class StatePersistency
    public static void setVPDInfo(String session, HashMap<String,BindValue> vpdinfo) throws Exception
    {
       JSONObject nvp = null;
-      File file = vpdFile(session);
       JSONArray vars = new JSONArray();
 
       for(BindValue bv : vpdinfo.values())
@@ -222,16 +343,13 @@ public class StatePersistency
          vars.put(nvp);
       }
 
-      FileOutputStream out = new FileOutputStream(file);
-      out.write(vars.toString().getBytes());
-      out.close();
+      store.write(session,vpdName(session),vars.toString().getBytes());
    }
 
 
    public static void setClientInfo(String session, HashMap<String,BindValue> coninfo) throws Exception
    {
       JSONObject nvp = null;
-      File file = cliFile(session);
       JSONArray vars = new JSONArray();
 
       for(BindValue bv : coninfo.values())
@@ -242,21 +360,17 @@ public class StatePersistency
          vars.put(nvp);
       }
 
-      FileOutputStream out = new FileOutputStream(file);
-      out.write(vars.toString().getBytes());
-      out.close();
+      store.write(session,cliName(session),vars.toString().getBytes());
    }
 
 
    public static HashMap<String,BindValue> getVPDInfo(String session) throws Exception
    {
       JSONObject nvp = null;
-      File file = vpdFile(session);
-      if (!file.exists()) return(null);
-      HashMap<String,BindValue> values = new HashMap<String,BindValue>();
+      byte[] bytes = store.read(session,vpdName(session));
 
-      FileInputStream in = new FileInputStream(file);
-      byte[] bytes = in.readAllBytes(); in.close();
+      if (bytes == null) return(null);
+      HashMap<String,BindValue> values = new HashMap<String,BindValue>();
 
       JSONArray vars = new JSONArray(new String(bytes));
 
@@ -278,12 +392,10 @@ public class StatePersistency
    public static HashMap<String,BindValue> getClientInfo(String session) throws Exception
    {
       JSONObject nvp = null;
-      File file = cliFile(session);
-      if (!file.exists()) return(null);
-      HashMap<String,BindValue> values = new HashMap<String,BindValue>();
+      byte[] bytes = store.read(session,cliName(session));
 
-      FileInputStream in = new FileInputStream(file);
-      byte[] bytes = in.readAllBytes(); in.close();
+      if (bytes == null) return(null);
+      HashMap<String,BindValue> values = new HashMap<String,BindValue>();
 
       JSONArray vars = new JSONArray(new String(bytes));
 
@@ -304,20 +416,28 @@ public class StatePersistency
 
    public static SessionInfo getSession(String session) throws Exception
    {
-      File file = sesFile(session);
-      if (!file.exists()) return(null);
-      SessionInfo info = new SessionInfo(file,inst);
-      file.setLastModified(System.currentTimeMillis());
+      String name = sesName(session);
+      byte[] bytes = store.read(session,name);
+
+      if (bytes == null) return(null);
+
+      long modified = modified(session,name);
+      SessionInfo info = new SessionInfo(session,bytes,modified,inst);
+
+      journal.touch(session,name,System.currentTimeMillis());
       return(info);
    }
 
 
-   public static boolean touchSession(String session)
+   public static boolean touchSession(String session) throws Exception
    {
-      File file = sesFile(session);
-      if (!file.exists()) return(false);
+      String name = sesName(session);
+
+      // Sessions held by this instance are known to exist
+      if (!State.hasSession(session) && modified(session,name) == 0)
+         return(false);
 
-      file.setLastModified((new Date()).getTime());
+      journal.touch(session,name,(new Date()).getTime());
       return(true);
    }
 
@@ -325,68 +445,60 @@ public class StatePersistency
    public static void transferSession(String session, String user, boolean stateful) throws Exception
    {
       SessionInfo info = new SessionInfo(pid,session,inst,user,stateful);
-      info.save(sesFile(session));
+      store.write(session,sesName(session),info.bytes());
    }
 
 
    public static void releaseSession(String session, String user, boolean stateful) throws Exception
    {
       SessionInfo info = new SessionInfo(-1,session,inst,user,stateful);
-      info.save(sesFile(session));
+      store.write(session,sesName(session),info.bytes());
    }
 
 
-   public static boolean removeSession(String session)
+   public static boolean removeSession(String session) throws Exception
    {
-      File file = sesFile(session);
-      if (!file.exists()) return(false);
-
-      file = file.getParentFile();
-
-      File[] content = file.listFiles();
-      for(File child : content) child.delete();
-
-      file.delete();
-      return(true);
+      if (store.modified(session,sesName(session)) == 0) return(false);
+      return(store.remove(session));
    }
 
 
    public static TransactionInfo getTransaction(String session) throws Exception
    {
       TransactionInfo info = null;
-      File file = trxFile(session);
+      String name = trxName(session);
+      byte[] bytes = store.read(session,name);
 
-      if (file.exists())
-         info = new TransactionInfo(file);
+      if (bytes != null)
+         info = new TransactionInfo(session,bytes,store.modified(session,name));
 
       return(info);
    }
 
 
-   public static TransactionInfo touchTransaction(String session, Date start) throws Exception
+   public static TransactionInfo touchTransaction(String session, Date start, boolean started) throws Exception
    {
-      TransactionInfo info = null;
-      File file = trxFile(session);
+      String name = trxName(session);
+      byte[] bytes = (inst+" "+StatePersistency.pid).getBytes();
 
-      if (!file.exists())
+      // The transaction must be visible to other instances right away
+      if (!started)
       {
-         FileOutputStream out = new FileOutputStream(file);
-         out.write((inst+" "+StatePersistency.pid).getBytes()); out.close();
-      }
+         byte[] trx = store.read(session,name);
 
-      info = new TransactionInfo(file);
-      file.setLastModified(start.getTime());
+         if (trx != null) bytes = trx;
+         else store.write(session,name,bytes);
+      }
 
-      return(info);
+      journal.touch(session,name,start.getTime());
+      return(new TransactionInfo(session,bytes,start.getTime()));
    }
 
 
    public static boolean removeTransaction(String session) throws Exception
    {
-      File file = trxFile(session);
-      if (!file.exists()) return(false);
-      file.delete();
-      return(true);
+      journal.discard(session,trxName(session));
+      return(store.remove(session,trxName(session)));
    }
 
 
@@ -398,14 +510,9 @@ public class StatePersistency
       while (!done)
       {
          guid = Guid.generate();
-         File file = curFile(sessid,guid);
 
-         if (!file.exists())
-         {
-            done = true;
-            CursorInfo info = new CursorInfo(guid,prim,pos,pagesize,def);
-            info.save(file);
-         }
+         CursorInfo info = new CursorInfo(guid,prim,pos,pagesize,def);
+         done = store.create(sessid,curName(guid),info.bytes());
       }
 
       return(guid);
@@ -414,108 +521,119 @@ public class StatePersistency
 
    public static CursorInfo getCursor(String sessid, String cursid) throws Exception
    {
-      File file = curFile(sessid,cursid);
-      if (!file.exists()) return(null);
-      return(new CursorInfo(file));
+      byte[] bytes = store.read(sessid,curName(cursid));
+      if (bytes == null) return(null);
+      return(new CursorInfo(cursid,bytes));
    }
 
 
    public static boolean removeCursor(String sessid, String cursid) throws Exception
    {
-      File file = curFile(sessid,cursid);
-      if (!file.exists()) return(false);
-      file.delete();
-      return(true);
+      return(store.remove(sessid,curName(cursid)));
    }
 
 
-   public static boolean updateCursor(String sessid, String cursid, boolean prim, long pos, int pgz, int exc, int ftc) throws Exception
+   /** Update the header, and the key if it fits in the space reserved when the cursor was written */
+   public static boolean updateCursor(String sessid, String cursid, boolean prim, long pos, int pgz, int exc, int ftc, byte[] key, int keycap) throws Exception
    {
-      File file = curFile(sessid,cursid);
-      if (!file.exists()) return(false);
-      CursorInfo.update(file,prim,pos,pgz,exc,ftc);
-      return(true);
+      byte[] header = CursorInfo.header(prim,pos,pgz,exc,ftc,key,keycap);
+      return(store.update(sessid,curName(cursid),0,header));
    }
 
 
-   private static File pidFile(String inst)
+   /** Rewrite the whole cursor record, if it still exists, reserving keycap bytes for the key */
+   public static boolean writeCursor(String sessid, String cursid, boolean prim, long pos, int pgz, int exc, int ftc, byte[] key, int keycap, JSONObject def) throws Exception
    {
-      return(new File(Config.path(STATE,INSTANCES,inst+"."+PID)));
+      String name = curName(cursid);
+      if (store.modified(sessid,name) == 0) return(false);
+
+      byte[] data = def.toString().getBytes();
+      byte[] header = CursorInfo.header(prim,pos,pgz,exc,ftc,key,keycap);
+      byte[] bytes = new byte[header.length+data.length];
+
+      System.arraycopy(header,0,bytes,0,header.length);
+      System.arraycopy(data,0,bytes,header.length,data.length);
+
+      store.write(sessid,name,bytes);
+      return(true);
    }
 
 
-   private static File curFile(String session, String cursor)
+   private static long modified(String session, String name) throws Exception
    {
-      return(new File(Config.path(STATE,session,cursor+"."+CUR)));
+      long modified = store.modified(session,name);
+      if (modified == 0) return(0);
+      return(Math.max(modified,journal.pending(session,name)));
    }
 
 
-   private static File trxFile(String session)
+   private static File pidFile(String inst)
    {
-      return(new File(Config.path(STATE,session,session+"."+TRX)));
+      return(new File(Config.path(STATE,INSTANCES,inst+"."+PID)));
    }
 
 
-   private static File sesFile(String session)
+   private static String curName(String cursor)
    {
-      return(new File(Config.path(STATE,session,session+"."+SES)));
+      return(cursor+"."+CUR);
    }
 
 
-   private static File vpdFile(String session)
+   private static String trxName(String session)
    {
-      return(new File(Config.path(STATE,session,session+"."+VPD)));
+      return(session+"."+TRX);
    }
 
 
-   private static File cliFile(String session)
+   private static String sesName(String session)
    {
-      return(new File(Config.path(STATE,session,session+"."+CLI)));
+      return(session+"."+SES);
    }
 
 
-   private static File sesFile(File parent, String session)
+   private static String vpdName(String session)
    {
-      String path = parent.getPath()+File.separator+session;
-      return(new File(path+File.separator+session+"."+SES));
+      return(session+"."+VPD);
    }
 
 
-   private static File sesPath(String session)
+   private static String cliName(String session)
    {
-      return(new File(Config.path(STATE,session)));
+      return(session+"."+CLI);
    }
 
 
-   public static void cleanout(long now, int timeout)
+   /**
+    * Remove sessions left behind by other instances. At most max sessions are checked
+    * per call, and the store is listed at most once per timeout.
+    */
+   public static synchronized void cleanout(long now, int timeout, int max) throws Exception
    {
-      File root = new File(StatePersistency.path);
-
-      if (root.exists())
+      if (sweep == null || swept >= sweep.length)
       {
-         for(File file : root.listFiles())
-         {
-            if (!file.isDirectory())
-               continue;
+         if (now - listed < timeout)
+            return;
 
-            if (file.getName().equals(INSTANCES))
-               continue;
+         swept = 0;
+         listed = now;
+         sweep = store.sessions();
+      }
 
-            if (State.hasSession(file.getName()))
-               continue;
+      int end = Math.min(sweep.length,swept+max);
 
-            File session = sesFile(file.getName());
+      for(; swept < end; swept++)
+      {
+         String session = sweep[swept];
 
-            if (now - session.lastModified() > timeout)
-            {
-               File folder = session.getParentFile();
-               Config.logger().info("remove "+file.getName());
+         if (State.hasSession(session))
+            continue;
 
-               File[] content = folder.listFiles();
-               for(File child : content) child.delete();
+         long modified = modified(session,sesName(session));
 
-               session.getParentFile().delete();
-            }
+         if (now - modified > timeout)
+         {
+            Config.logger().info("remove "+session);
+            store.remove(session);
          }
       }
    }
@@ -582,16 +700,12 @@ public class StatePersistency
          this.stateful = stateful;
       }
 
-      private SessionInfo(File file, String inst) throws Exception
+      private SessionInfo(String guid, byte[] bytes, long modified, String inst) throws Exception
       {
-         String guid = file.getName();
          long now = (new Date()).getTime();
 
-         this.age = (int) (now - file.lastModified())/1000;
-         this.guid = guid.substring(0,guid.length()-SES.length()-1);
-
-         FileInputStream in = new FileInputStream(file);
-         byte[] bytes = in.readAllBytes(); in.close();
+         this.guid = guid;
+         this.age = (int) (now - modified)/1000;
 
          int ilen = bytes[0];
          if (ilen < 0) ilen = 256 + ilen;
@@ -612,7 +726,7 @@ public class StatePersistency
       }
 
 
-      public void save(File file) throws Exception
+      public byte[] bytes() throws Exception
       {
          byte[] user = this.user.getBytes();
          byte[] inst = this.inst.getBytes();
@@ -630,9 +744,7 @@ public class StatePersistency
          System.arraycopy(inst,0,bytes,2+bpid.length,ilen);
          System.arraycopy(user,0,bytes,2+bpid.length+ilen,ulen);
 
-         FileOutputStream out = new FileOutputStream(file);
-         out.write(bytes);
-         out.close();
+         return(bytes);
       }
    }
 
@@ -644,36 +756,45 @@ public class StatePersistency
       public final int ftc;
       public final long pos;
       public final String guid;
+      public final int keycap;
       public final boolean prim;
+      public final JSONArray key;
       public final JSONObject json;
 
-      // 1 long + 3 int's
-      private static final int HEADER = 21;
+      // 1 byte + 1 long + 4 int's, followed by keycap bytes for the key
+      private static final int HEADER = 25;
 
-      private static void update(File file, boolean prim, long pos, int pgz, int exc, int ftc) throws Exception
+      private static byte[] header(boolean prim, long pos, int pgz, int exc, int ftc, byte[] key, int keycap)
       {
          byte[] bpos = Bytes.getBytes(pos);
          byte[] bpgz = Bytes.getBytes(pgz);
          byte[] bexc = Bytes.getBytes(exc);
          byte[] bftc = Bytes.getBytes(ftc);
+         byte[] bcap = Bytes.getBytes(keycap);
 
          int off = 0;
-         byte[] bytes = new byte[HEADER];
+         byte[] bytes = new byte[HEADER+keycap];
 
          bytes[0] = prim ? (byte) 1 : 0; off++;
          System.arraycopy(bpos,0,bytes,off,bpos.length); off += bpos.length;
          System.arraycopy(bpgz,0,bytes,off,bpgz.length); off += bpgz.length;
          System.arraycopy(bexc,0,bytes,off,bexc.length); off += bexc.length;
          System.arraycopy(bftc,0,bytes,off,bftc.length); off += bftc.length;
+         System.arraycopy(bcap,0,bytes,off,bcap.length); off += bcap.length;
 
-         RandomAccessFile raf = new RandomAccessFile(file,"rw");
-         raf.write(bytes); raf.close();
+         // The key is padded with blanks, so a shorter key overwrites a longer
+         Arrays.fill(bytes,off,bytes.length,(byte) ' ');
+         if (key != null) System.arraycopy(key,0,bytes,off,key.length);
+
+         return(bytes);
       }
 
       private CursorInfo(String guid, boolean prim, long pos, int pgz, JSONObject json)
       {
          this.exc = 0;
          this.ftc = 0;
+         this.key = null;
+         this.keycap = 0;
          this.pos = pos;
          this.pgz = pgz;
          this.prim = prim;
@@ -681,47 +802,34 @@ public class StatePersistency
          this.guid = guid;
       }
 
-      private CursorInfo(File file) throws Exception
+      private CursorInfo(String guid, byte[] bytes) throws Exception
       {
-         String guid = file.getName();
-         this.guid = guid.substring(0,guid.length()-CUR.length()-1);
-
-         FileInputStream in = new FileInputStream(file);
-         byte[] bytes = in.readAllBytes(); in.close();
+         this.guid = guid;
 
          this.prim = bytes[0] == 1;
          this.pos = Bytes.getLong(bytes,1);
          this.pgz = Bytes.getInt(bytes,9);
          this.exc = Bytes.getInt(bytes,13);
          this.ftc = Bytes.getInt(bytes,17);
+         this.keycap = Bytes.getInt(bytes,21);
+
+         String key = new String(bytes,HEADER,keycap).trim();
+         this.key = key.length() == 0 ? null : new JSONArray(key);
 
-         String json = new String(bytes,HEADER,bytes.length-HEADER);
+         String json = new String(bytes,HEADER+keycap,bytes.length-HEADER-keycap);
          this.json = new JSONOObject(json);
       }
 
-      public void save(File file) throws Exception
+      public byte[] bytes() throws Exception
       {
-         int off = 0;
-
-         byte[] exc = Bytes.getBytes((int) 0);
-         byte[] ftc = Bytes.getBytes((int) 0);
-
-         byte[] pos = Bytes.getBytes(this.pos);
-         byte[] pgz = Bytes.getBytes(this.pgz);
-
          byte[] def = this.json.toString().getBytes();
-         byte[] bytes = new byte[9+12+def.length];
+         byte[] head = header(prim,pos,pgz,0,0,null,0);
+         byte[] bytes = new byte[HEADER+def.length];
 
-         bytes[0] = prim ? (byte) 1 : 0; off++;
-         System.arraycopy(pos,0,bytes,off,pos.length); off += pos.length;
-         System.arraycopy(pgz,0,bytes,off,pgz.length); off += pgz.length;
-         System.arraycopy(exc,0,bytes,off,exc.length); off += exc.length;
-         System.arraycopy(ftc,0,bytes,off,pgz.length); off += ftc.length;
-         System.arraycopy(def,0,bytes,off,def.length); off += def.length;
+         System.arraycopy(head,0,bytes,0,HEADER);
+         System.arraycopy(def,0,bytes,HEADER,def.length);
 
-         FileOutputStream out = new FileOutputStream(file);
-         out.write(bytes);
-         out.close();
+         return(bytes);
       }
    }
 
@@ -734,17 +842,14 @@ public class StatePersistency
       public final String user;
       public final String inst;
 
-      private TransactionInfo(File file) throws Exception
+      private TransactionInfo(String guid, byte[] bytes, long modified) throws Exception
       {
-         String guid = file.getName();
          long now = (new Date()).getTime();
 
-         this.age = (int) (now - file.lastModified())/1000;
-         this.guid = guid.substring(0,guid.length()-SES.length()-1);
-
-         FileInputStream in = new FileInputStream(file);
-         String content = new String(in.readAllBytes()); in.close();
+         this.guid = guid;
+         this.age = (int) (now - modified)/1000;
 
+         String content = new String(bytes);
          String[] args = content.split(" ");
 
          this.user = args[0];
@@ -753,26 +858,4 @@ public class StatePersistency
          this.pid = Long.parseLong(args[1]);
       }
    }
-
-
-   private static class FileType implements FilenameFilter
-   {
-      private final String pfix;
-
-      public static FileType get(String type)
-      {
-         return(new FileType(type));
-      }
-
-      private FileType(String type)
-      {
-         this.pfix = "."+type;
-      }
-
-      @Override
-      public boolean accept(File dir, String name)
-      {
-         return(name.endsWith(pfix));
-      }
-   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,191 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package state;
+
+import jsondb.Config;
+import utils.JSONOObject;
+import java.util.logging.Level;
+import state.definitions.StateStore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Write-behind for touches. Last-used timestamps are collected in memory
+ * and written to the store every interval. Touches of the same record
+ * within an interval are merged into one write.
+ */
+public class TouchJournal extends Thread
+{
+   private final long interval;
+   private final StateStore store;
+
+   private final AtomicLong writes = new AtomicLong();
+   private final AtomicLong merged = new AtomicLong();
+   private final AtomicLong touches = new AtomicLong();
+   private final AtomicLong flushes = new AtomicLong();
+
+   private long counted = 0;
+   private volatile long lastwrites = 0;
+   private volatile long lastmerged = 0;
+
+   private final ConcurrentHashMap<Touch,Long> pending =
+      new ConcurrentHashMap<Touch,Long>();
+
+
+   TouchJournal(StateStore store, long interval)
+   {
+      this.store = store;
+      this.interval = interval;
+
+      this.setDaemon(true);
+      this.setName(this.getClass().getName());
+
+      if (interval > 0) this.start();
+   }
+
+
+   public void touch(String session, String name, long time) throws Exception
+   {
+      touches.incrementAndGet();
+
+      if (interval <= 0)
+      {
+         writes.incrementAndGet();
+         store.touch(session,name,time);
+         return;
+      }
+
+      pending.merge(new Touch(session,name),time,Math::max);
+   }
+
+
+   public long pending(String session, String name)
+   {
+      Long time = pending.get(new Touch(session,name));
+      return(time == null ? 0 : time);
+   }
+
+
+   public void discard(String session, String name)
+   {
+      pending.remove(new Touch(session,name));
+   }
+
+
+   public synchronized void flush() throws Exception
+   {
+      long written = 0;
+      long touched = touches.get();
+
+      for(Touch touch : pending.keySet())
+      {
+         Long time = pending.remove(touch);
+         if (time == null) continue;
+
+         store.touch(touch.session,touch.name,time);
+         written++;
+      }
+
+      long merged = touched - counted - written;
+      if (merged < 0) merged = 0;
+
+      this.counted = touched;
+      this.lastwrites = written;
+      this.lastmerged = merged;
+
+      flushes.incrementAndGet();
+      writes.addAndGet(written);
+      this.merged.addAndGet(merged);
+   }
+
+
+   public JSONOObject stats()
+   {
+      JSONOObject stats = new JSONOObject();
+
+      stats.put("interval",interval+"ms");
+      stats.put("touches",touches.get());
+      stats.put("writes",writes.get());
+      stats.put("merged",merged.get());
+      stats.put("flushes",flushes.get());
+      stats.put("pending",pending.size());
+      stats.put("last-flush",lastmerged+" merged into "+lastwrites+" writes");
+
+      return(stats);
+   }
+
+
+   public void run()
+   {
+      while (true)
+      {
+         try
+         {
+            sleep(interval);
+            flush();
+         }
+         catch (InterruptedException e)
+         {
+            break;
+         }
+         catch (Throwable t)
+         {
+            Config.logger().log(Level.SEVERE,t.toString(),t);
+         }
+      }
+
+      // Write what is pending before stopping
+      try {flush();} catch (Throwable t)
+      {Config.logger().log(Level.SEVERE,t.toString(),t);}
+   }
+
+
+   private static class Touch
+   {
+      private final String name;
+      private final String session;
+
+      private Touch(String session, String name)
+      {
+         this.name = name;
+         this.session = session;
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return(31 * session.hashCode() + name.hashCode());
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (!(obj instanceof Touch)) return(false);
+
+         Touch touch = (Touch) obj;
+         return(session.equals(touch.session) && name.equals(touch.name));
+      }
+   }
+}
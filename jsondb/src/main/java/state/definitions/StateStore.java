@@ -0,0 +1,49 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package state.definitions;
+
+
+/**
+ * The storage behind StatePersistency.
+ * Records are grouped by session and named guid.type,
+ * modified is the last time the record was written or touched.
+ */
+public interface StateStore
+{
+   String[] sessions() throws Exception;
+   String[] list(String session, String type) throws Exception;
+
+   long modified(String session, String name) throws Exception;
+   byte[] read(String session, String name) throws Exception;
+
+   boolean create(String session, String name, byte[] data) throws Exception;
+   void write(String session, String name, byte[] data) throws Exception;
+   boolean update(String session, String name, int offset, byte[] data) throws Exception;
+
+   boolean touch(String session, String name, long time) throws Exception;
+   boolean remove(String session, String name) throws Exception;
+   boolean remove(String session) throws Exception;
+
+   void close() throws Exception;
+}
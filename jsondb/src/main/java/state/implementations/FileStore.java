@@ -0,0 +1,207 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package state.implementations;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.ArrayList;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import state.definitions.StateStore;
+
+
+/**
+ * One file per record in a folder per session.
+ * This is the original layout, and the default.
+ */
+public class FileStore implements StateStore
+{
+   private final File root;
+   private final HashSet<String> skip;
+
+
+   public FileStore(String path, String... skip)
+   {
+      this.root = new File(path);
+      this.skip = new HashSet<String>();
+      for(String name : skip) this.skip.add(name);
+   }
+
+
+   @Override
+   public String[] sessions()
+   {
+      ArrayList<String> sessions = new ArrayList<String>();
+
+      File[] folders = root.listFiles();
+      if (folders == null) return(new String[0]);
+
+      for(File folder : folders)
+      {
+         if (!folder.isDirectory())
+            continue;
+
+         if (skip.contains(folder.getName()))
+            continue;
+
+         sessions.add(folder.getName());
+      }
+
+      return(sessions.toArray(new String[0]));
+   }
+
+
+   @Override
+   public String[] list(String session, String type)
+   {
+      String pfix = "."+type;
+      ArrayList<String> names = new ArrayList<String>();
+
+      String[] files = folder(session).list();
+      if (files == null) return(new String[0]);
+
+      for(String name : files)
+      {
+         if (name.endsWith(pfix))
+            names.add(name.substring(0,name.length()-pfix.length()));
+      }
+
+      return(names.toArray(new String[0]));
+   }
+
+
+   @Override
+   public long modified(String session, String name)
+   {
+      return(file(session,name).lastModified());
+   }
+
+
+   @Override
+   public byte[] read(String session, String name) throws Exception
+   {
+      File file = file(session,name);
+      if (!file.exists()) return(null);
+
+      FileInputStream in = new FileInputStream(file);
+      byte[] bytes = in.readAllBytes(); in.close();
+
+      return(bytes);
+   }
+
+
+   @Override
+   public boolean create(String session, String name, byte[] data) throws Exception
+   {
+      File file = file(session,name);
+      file.getParentFile().mkdirs();
+
+      if (!file.createNewFile())
+         return(false);
+
+      FileOutputStream out = new FileOutputStream(file);
+      out.write(data);
+      out.close();
+
+      return(true);
+   }
+
+
+   @Override
+   public void write(String session, String name, byte[] data) throws Exception
+   {
+      File file = file(session,name);
+
+      FileOutputStream out = new FileOutputStream(file);
+      out.write(data);
+      out.close();
+   }
+
+
+   @Override
+   public boolean update(String session, String name, int offset, byte[] data) throws Exception
+   {
+      File file = file(session,name);
+      if (!file.exists()) return(false);
+
+      RandomAccessFile raf = new RandomAccessFile(file,"rw");
+      raf.seek(offset); raf.write(data); raf.close();
+
+      return(true);
+   }
+
+
+   @Override
+   public boolean touch(String session, String name, long time)
+   {
+      File file = file(session,name);
+      if (!file.exists()) return(false);
+
+      file.setLastModified(time);
+      return(true);
+   }
+
+
+   @Override
+   public boolean remove(String session, String name)
+   {
+      File file = file(session,name);
+      if (!file.exists()) return(false);
+      file.delete();
+      return(true);
+   }
+
+
+   @Override
+   public boolean remove(String session)
+   {
+      File folder = folder(session);
+      if (!folder.exists()) return(false);
+
+      File[] content = folder.listFiles();
+      if (content != null) for(File child : content) child.delete();
+
+      folder.delete();
+      return(true);
+   }
+
+
+   @Override
+   public void close()
+   {
+   }
+
+
+   private File folder(String session)
+   {
+      return(new File(root,session));
+   }
+
+
+   private File file(String session, String name)
+   {
+      return(new File(folder(session),name));
+   }
+}
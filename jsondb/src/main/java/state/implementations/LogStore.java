@@ -0,0 +1,867 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package state.implementations;
+
+import java.io.File;
+import jsondb.Config;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.io.EOFException;
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.FileChannel;
+import state.definitions.StateStore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+
+/**
+ * Append-only store. Each instance appends records to its own segments
+ * in <root>/<instance>, and reads (tails) the segments of other instances.
+ * An in-memory index points to the latest version of each record.
+ * Conflicting versions are resolved by timestamp (last writer wins).
+ * Timestamps come from the wall clock of each instance, so clock skew between
+ * instances can reorder writes made closer in time than the skew. To keep causal
+ * order, an instance never stamps a write at or below the latest stamp it has seen
+ * from other instances. Foreign segments are tailed every refresh millis,
+ * or when a session is not found in the index.
+ * A background thread rolls the active segment when it exceeds segment-size,
+ * and rewrites own segments where less than half of the content is live.
+ */
+public class LogStore implements StateStore
+{
+   private static final byte PUT = 1;
+   private static final byte TOUCH = 2;
+   private static final byte DELETE = 3;
+   private static final byte DROP = 4;
+
+   // length + checksum
+   private static final int PREFIX = 8;
+   private static final String LOG = ".log";
+   private static final byte[] EMPTY = new byte[0];
+
+   private final File root;
+   private final String inst;
+   private final long keep;
+   private final long refresh;
+   private final long segsize;
+
+   private long seq = 0;
+   private long clock = 0;
+   private long foreign = 0;
+   private long scanned = 0;
+   private boolean loaded = false;
+
+   private Segment active = null;
+   private Compactor compactor = null;
+
+   private final Object APPEND = new Object();
+
+   private final ConcurrentHashMap<String,Records> index =
+      new ConcurrentHashMap<String,Records>();
+
+   private final ConcurrentSkipListMap<String,Segment> segments =
+      new ConcurrentSkipListMap<String,Segment>();
+
+
+   /**
+    * Open the store for reading only, i.e. for listing the state
+    * @param path the folder holding the segments
+    */
+   public static LogStore reader(String path) throws Exception
+   {
+      return(new LogStore(path,null,0,0,0,0));
+   }
+
+
+   /**
+    * @param path the folder holding the segments
+    * @param inst the instance name
+    * @param segsize roll the active segment when it exceeds segsize bytes
+    * @param refresh millis between scans for new segments
+    * @param compaction millis between compactions
+    * @param keep millis to keep tombstones for deleted records
+    */
+   public LogStore(String path, String inst, long segsize, long refresh, long compaction, long keep) throws Exception
+   {
+      this.inst = inst;
+      this.keep = keep;
+      this.refresh = refresh;
+      this.segsize = segsize;
+      this.root = new File(path);
+
+      if (inst != null)
+         new File(root,inst).mkdirs();
+
+      scan(true);
+      this.loaded = true;
+
+      if (inst != null)
+      {
+         this.active = roll();
+         this.compactor = new Compactor(this,compaction);
+      }
+   }
+
+
+   @Override
+   public String[] sessions() throws Exception
+   {
+      scan(false);
+      ArrayList<String> sessions = new ArrayList<String>();
+
+      for(String session : index.keySet())
+      {
+         Records recs = index.get(session);
+         if (recs == null) continue;
+
+         synchronized(recs)
+         {
+            for(Entry entry : recs.entries.values())
+            {
+               if (!entry.deleted)
+               {
+                  sessions.add(session);
+                  break;
+               }
+            }
+         }
+      }
+
+      return(sessions.toArray(new String[0]));
+   }
+
+
+   @Override
+   public String[] list(String session, String type) throws Exception
+   {
+      String pfix = "."+type;
+      Records recs = lookup(session);
+      ArrayList<String> names = new ArrayList<String>();
+
+      if (recs == null)
+         return(new String[0]);
+
+      synchronized(recs)
+      {
+         for(Entry entry : recs.entries.values())
+         {
+            if (!entry.deleted && entry.name.endsWith(pfix))
+               names.add(entry.name.substring(0,entry.name.length()-pfix.length()));
+         }
+      }
+
+      return(names.toArray(new String[0]));
+   }
+
+
+   @Override
+   public long modified(String session, String name) throws Exception
+   {
+      Records recs = lookup(session);
+      if (recs == null) return(0);
+
+      synchronized(recs)
+      {
+         Entry entry = recs.entries.get(name);
+         if (entry == null || entry.deleted) return(0);
+         return(entry.modified);
+      }
+   }
+
+
+   @Override
+   public byte[] read(String session, String name) throws Exception
+   {
+      Records recs = lookup(session);
+      if (recs == null) return(null);
+
+      synchronized(recs)
+      {
+         Entry entry = recs.entries.get(name);
+         if (entry == null || entry.deleted) return(null);
+         return(entry.seg.read(entry.pos,entry.len));
+      }
+   }
+
+
+   @Override
+   public boolean create(String session, String name, byte[] data) throws Exception
+   {
+      while (true)
+      {
+         Records recs = records(session);
+
+         synchronized(recs)
+         {
+            // Dropped from the index by compaction while waiting
+            if (index.get(session) != recs) continue;
+
+            Entry entry = recs.entries.get(name);
+            if (entry != null && !entry.deleted) return(false);
+
+            append(recs,PUT,time(),session,name,data);
+            return(true);
+         }
+      }
+   }
+
+
+   @Override
+   public void write(String session, String name, byte[] data) throws Exception
+   {
+      while (true)
+      {
+         Records recs = records(session);
+
+         synchronized(recs)
+         {
+            if (index.get(session) != recs) continue;
+            append(recs,PUT,time(),session,name,data); return;
+         }
+      }
+   }
+
+
+   @Override
+   public boolean update(String session, String name, int offset, byte[] data) throws Exception
+   {
+      Records recs = lookup(session);
+      if (recs == null) return(false);
+
+      synchronized(recs)
+      {
+         Entry entry = recs.entries.get(name);
+         if (entry == null || entry.deleted) return(false);
+
+         byte[] bytes = entry.seg.read(entry.pos,entry.len);
+
+         if (bytes.length < offset + data.length)
+            bytes = Arrays.copyOf(bytes,offset + data.length);
+
+         System.arraycopy(data,0,bytes,offset,data.length);
+         append(recs,PUT,time(),session,name,bytes);
+
+         return(true);
+      }
+   }
+
+
+   @Override
+   public boolean touch(String session, String name, long time) throws Exception
+   {
+      Records recs = lookup(session);
+      if (recs == null) return(false);
+
+      synchronized(recs)
+      {
+         Entry entry = recs.entries.get(name);
+         if (entry == null || entry.deleted) return(false);
+
+         byte[] modified = ByteBuffer.allocate(Long.BYTES).putLong(time).array();
+         append(recs,TOUCH,time(),session,name,modified);
+
+         return(true);
+      }
+   }
+
+
+   @Override
+   public boolean remove(String session, String name) throws Exception
+   {
+      Records recs = lookup(session);
+      if (recs == null) return(false);
+
+      synchronized(recs)
+      {
+         Entry entry = recs.entries.get(name);
+         if (entry == null || entry.deleted) return(false);
+
+         append(recs,DELETE,time(),session,name,EMPTY);
+         return(true);
+      }
+   }
+
+
+   @Override
+   public boolean remove(String session) throws Exception
+   {
+      Records recs = lookup(session);
+      if (recs == null) return(false);
+
+      synchronized(recs)
+      {
+         if (recs.entries.size() == 0)
+            return(false);
+
+         append(recs,DROP,time(),session,"",EMPTY);
+         return(true);
+      }
+   }
+
+
+   @Override
+   public void close() throws Exception
+   {
+      if (compactor != null)
+         compactor.interrupt();
+
+      synchronized(APPEND)
+      {
+         for(Segment seg : segments.values())
+            seg.channel.close();
+      }
+   }
+
+
+   /**
+    * Roll the active segment if full, and rewrite own
+    * segments where less than half of the content is live.
+    */
+   public void compact() throws Exception
+   {
+      scan(true);
+
+      boolean full = false;
+
+      synchronized(APPEND)
+      {full = active.end >= segsize;}
+
+      // Rolled outside APPEND, scan locks records while holding segments
+      if (full)
+      {
+         Segment seg = roll();
+         synchronized(APPEND) {active = seg;}
+      }
+
+      for(Segment seg : segments.values())
+      {
+         if (!seg.local || seg == active)
+            continue;
+
+         if (seg.live.get() * 2 < seg.end)
+            rewrite(seg);
+      }
+   }
+
+
+   private void rewrite(Segment seg) throws Exception
+   {
+      long now = System.currentTimeMillis();
+
+      for(String session : index.keySet())
+      {
+         Records recs = index.get(session);
+         if (recs == null) continue;
+
+         synchronized(recs)
+         {
+            if (recs.dropseg == seg)
+            {
+               if (now - recs.dropped < keep) append(recs,DROP,recs.dropped,session,"",EMPTY);
+               else recs.dropseg = null;
+            }
+
+            for(String name : new ArrayList<String>(recs.entries.keySet()))
+            {
+               Entry entry = recs.entries.get(name);
+               if (entry.seg != seg) continue;
+
+               if (entry.deleted)
+               {
+                  if (now - entry.stamp < keep) append(recs,DELETE,entry.stamp,session,name,EMPTY);
+                  else recs.entries.remove(name);
+                  continue;
+               }
+
+               long modified = entry.modified;
+               byte[] data = seg.read(entry.pos,entry.len);
+               append(recs,PUT,entry.stamp,session,name,data);
+
+               if (modified != entry.stamp)
+               {
+                  byte[] time = ByteBuffer.allocate(Long.BYTES).putLong(modified).array();
+                  append(recs,TOUCH,entry.stamp,session,name,time);
+               }
+            }
+
+            if (recs.dropseg == null && recs.entries.size() == 0)
+               index.remove(session,recs);
+         }
+      }
+
+      segments.remove(seg.key);
+
+      seg.channel.close();
+      seg.file.delete();
+   }
+
+
+   private Records lookup(String session) throws Exception
+   {
+      Records recs = index.get(session);
+
+      if (recs != null)
+      {
+         scan(false);
+         return(recs);
+      }
+
+      // Possibly created by another instance in a segment not seen yet
+      scan(true);
+      return(index.get(session));
+   }
+
+
+   private Records records(String session)
+   {
+      return(index.computeIfAbsent(session,(s) -> new Records()));
+   }
+
+
+   /**
+    * The wall clock, but never behind the latest stamp seen from other instances.
+    * A write that follows a foreign write is stamped after it, even if this
+    * instance's clock is behind.
+    */
+   private synchronized long time()
+   {
+      long now = System.currentTimeMillis();
+
+      if (now > clock) clock = now;
+      if (foreign >= clock) clock = foreign + 1;
+
+      return(clock);
+   }
+
+
+   private synchronized void seen(long time)
+   {
+      if (time > foreign) foreign = time;
+   }
+
+
+   private void scan(boolean force) throws Exception
+   {
+      long now = System.currentTimeMillis();
+      if (!force && now - scanned < refresh) return;
+
+      synchronized(segments)
+      {
+         scanned = now;
+         HashSet<String> found = new HashSet<String>();
+
+         File[] folders = root.listFiles();
+         if (folders == null) folders = new File[0];
+
+         for(File folder : folders)
+         {
+            if (!folder.isDirectory())
+               continue;
+
+            File[] files = folder.listFiles();
+            if (files == null) continue;
+
+            for(File file : files)
+            {
+               long seq = sequence(file.getName());
+               if (seq < 0) continue;
+
+               String key = folder.getName()+File.separator+file.getName();
+               boolean local = folder.getName().equals(inst);
+
+               found.add(key);
+               if (segments.containsKey(key)) continue;
+
+               if (local && seq > this.seq)
+                  this.seq = seq;
+
+               segments.put(key,new Segment(key,file,local,false));
+            }
+         }
+
+         // Tail first, a compacted segment's replacement must be read before the original is forgotten
+         for(Segment seg : segments.values())
+         {
+            if (loaded && seg.local)
+               continue;
+
+            synchronized(seg)
+            {tail(seg);}
+         }
+
+         for(Segment seg : segments.values())
+         {
+            if (!seg.local && !found.contains(seg.key))
+               forget(seg);
+         }
+      }
+   }
+
+
+   /**
+    * @return the sequence number of a segment file, or -1 if not a segment
+    */
+   private static long sequence(String name)
+   {
+      if (!name.endsWith(LOG))
+         return(-1);
+
+      try {return(Long.parseLong(name.substring(0,name.length()-LOG.length())));}
+      catch (NumberFormatException e) {return(-1);}
+   }
+
+
+   private void tail(Segment seg) throws Exception
+   {
+      long size = seg.channel.size();
+      if (size <= seg.tail) return;
+
+      ByteBuffer buf = ByteBuffer.allocate((int) (size - seg.tail));
+
+      while (buf.hasRemaining())
+      {
+         int read = seg.channel.read(buf,seg.tail+buf.position());
+         if (read < 0) break;
+      }
+
+      buf.flip();
+      int consumed = 0;
+
+      while (buf.remaining() >= PREFIX)
+      {
+         int len = buf.getInt();
+         int crc = buf.getInt();
+
+         // Incomplete, the writer is not done yet
+         if (len <= 0 || len > buf.remaining())
+            break;
+
+         byte[] rec = new byte[len];
+         buf.get(rec);
+
+         CRC32 check = new CRC32();
+         check.update(rec);
+
+         // Torn write
+         if ((int) check.getValue() != crc)
+            break;
+
+         apply(seg,seg.tail+consumed,rec);
+         consumed += PREFIX + len;
+      }
+
+      seg.tail += consumed;
+      if (!seg.local) seg.end = seg.tail;
+   }
+
+
+   private void apply(Segment seg, long pos, byte[] rec) throws Exception
+   {
+      ByteBuffer buf = ByteBuffer.wrap(rec);
+
+      byte op = buf.get();
+      long time = buf.getLong();
+
+      byte[] session = new byte[buf.getShort()]; buf.get(session);
+      byte[] name = new byte[buf.getShort()]; buf.get(name);
+
+      int len = buf.remaining();
+      long modified = op == TOUCH ? buf.getLong() : time;
+
+      String sesid = new String(session);
+      if (!seg.local) seen(time);
+
+      while (true)
+      {
+         Records recs = records(sesid);
+
+         synchronized(recs)
+         {
+            if (index.get(sesid) != recs) continue;
+            apply(recs,seg,op,time,new String(name),pos+PREFIX+rec.length-len,len,PREFIX+rec.length,modified); return;
+         }
+      }
+   }
+
+
+   private void apply(Records recs, Segment seg, byte op, long time, String name, long pos, int len, int size, long modified)
+   {
+      if (time < recs.dropped) return;
+      if (time == recs.dropped && op != DROP) return;
+
+      Entry entry = recs.entries.get(name);
+
+      switch(op)
+      {
+         case DROP:
+            recs.dropseg = seg;
+            recs.dropped = time;
+
+            recs.entries.values().removeIf((e) ->
+            {
+               if (e.stamp > time) return(false);
+               release(e); return(true);
+            });
+            break;
+
+         case PUT:
+            if (entry != null && entry.stamp > time) return;
+
+            release(entry);
+            seg.live.addAndGet(size);
+            recs.entries.put(name,new Entry(name,seg,pos,len,size,time,false));
+            break;
+
+         case TOUCH:
+            if (entry == null || entry.deleted) return;
+            if (entry.stamp > time) return;
+
+            entry.stamp = time;
+            entry.modified = modified;
+            break;
+
+         case DELETE:
+            if (entry != null && entry.stamp > time) return;
+
+            release(entry);
+            recs.entries.put(name,new Entry(name,seg,pos,0,size,time,true));
+            break;
+      }
+   }
+
+
+   private void release(Entry entry)
+   {
+      if (entry != null && !entry.deleted)
+         entry.seg.live.addAndGet(-entry.size);
+   }
+
+
+   private void forget(Segment seg) throws Exception
+   {
+      for(String session : index.keySet())
+      {
+         Records recs = index.get(session);
+         if (recs == null) continue;
+
+         synchronized(recs)
+         {
+            if (recs.dropseg == seg)
+               recs.dropseg = null;
+
+            recs.entries.values().removeIf((entry) -> entry.seg == seg);
+
+            if (recs.dropseg == null && recs.entries.size() == 0)
+               index.remove(session,recs);
+         }
+      }
+
+      segments.remove(seg.key);
+      seg.channel.close();
+   }
+
+
+   private void append(Records recs, byte op, long time, String session, String name, byte[] data) throws Exception
+   {
+      long pos = 0;
+      Segment seg = null;
+
+      if (inst == null)
+         throw new Exception("State store is opened read-only");
+
+      byte[] sess = session.getBytes();
+      byte[] bname = name.getBytes();
+
+      int len = 1 + 8 + 2 + sess.length + 2 + bname.length + data.length;
+      ByteBuffer buf = ByteBuffer.allocate(PREFIX+len);
+
+      buf.putInt(len);
+      buf.putInt(0);
+      buf.put(op);
+      buf.putLong(time);
+      buf.putShort((short) sess.length); buf.put(sess);
+      buf.putShort((short) bname.length); buf.put(bname);
+      buf.put(data);
+
+      CRC32 crc = new CRC32();
+      crc.update(buf.array(),PREFIX,len);
+      buf.putInt(4,(int) crc.getValue());
+
+      buf.flip();
+
+      synchronized(APPEND)
+      {
+         seg = active;
+         pos = seg.append(buf);
+      }
+
+      long modified = op == TOUCH ? ByteBuffer.wrap(data).getLong() : time;
+      apply(recs,seg,op,time,name,pos+PREFIX+len-data.length,data.length,PREFIX+len,modified);
+   }
+
+
+   private Segment roll() throws Exception
+   {
+      synchronized(segments)
+      {
+         String name = String.format("%010d",++seq)+LOG;
+         File file = new File(new File(root,inst),name);
+
+         String key = inst+File.separator+name;
+         Segment seg = new Segment(key,file,true,true);
+
+         segments.put(key,seg);
+         return(seg);
+      }
+   }
+
+
+   private static class Records
+   {
+      private long dropped = 0;
+      private Segment dropseg = null;
+
+      private final HashMap<String,Entry> entries =
+         new HashMap<String,Entry>();
+   }
+
+
+   private static class Entry
+   {
+      private final int len;
+      private final int size;
+      private final long pos;
+      private final Segment seg;
+      private final String name;
+      private final boolean deleted;
+
+      private long stamp;
+      private long modified;
+
+      private Entry(String name, Segment seg, long pos, int len, int size, long time, boolean deleted)
+      {
+         this.len = len;
+         this.seg = seg;
+         this.pos = pos;
+         this.size = size;
+         this.name = name;
+         this.stamp = time;
+         this.modified = time;
+         this.deleted = deleted;
+      }
+   }
+
+
+   private static class Segment
+   {
+      private final File file;
+      private final String key;
+      private final boolean local;
+      private final FileChannel channel;
+      private final AtomicLong live = new AtomicLong();
+
+      private long end = 0;
+      private long tail = 0;
+
+      private Segment(String key, File file, boolean local, boolean write) throws Exception
+      {
+         this.key = key;
+         this.file = file;
+         this.local = local;
+
+         if (write) this.channel = FileChannel.open(file.toPath(),StandardOpenOption.CREATE_NEW,StandardOpenOption.READ,StandardOpenOption.WRITE);
+         else this.channel = FileChannel.open(file.toPath(),StandardOpenOption.READ);
+
+         if (!write) this.end = channel.size();
+      }
+
+      private long append(ByteBuffer buf) throws Exception
+      {
+         long pos = end;
+
+         while (buf.hasRemaining())
+            end += channel.write(buf,end);
+
+         tail = end;
+         return(pos);
+      }
+
+      private byte[] read(long pos, int len) throws Exception
+      {
+         ByteBuffer buf = ByteBuffer.allocate(len);
+
+         while (buf.hasRemaining())
+         {
+            if (channel.read(buf,pos+buf.position()) < 0)
+               throw new EOFException(file.getPath());
+         }
+
+         return(buf.array());
+      }
+   }
+
+
+   private static class Compactor extends Thread
+   {
+      private final long interval;
+      private final LogStore store;
+
+      private Compactor(LogStore store, long interval)
+      {
+         this.store = store;
+         this.interval = interval;
+
+         this.setDaemon(true);
+         this.setName(this.getClass().getName());
+
+         this.start();
+      }
+
+      public void run()
+      {
+         while (true)
+         {
+            try
+            {
+               sleep(interval);
+               store.compact();
+            }
+            catch (InterruptedException e)
+            {
+               break;
+            }
+            catch (Throwable t)
+            {
+               Config.logger().log(Level.SEVERE,t.toString(),t);
+            }
+         }
+      }
+   }
+}
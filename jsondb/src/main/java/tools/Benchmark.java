@@ -0,0 +1,101 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package tools;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+
+
+/**
+ * Small timing harness for the micro benchmarks in this package.
+ * Each benchmark is run untimed once to warm up, then timed a number of rounds.
+ * The best and the median round are reported as ns per operation.
+ */
+public class Benchmark
+{
+   private static final int ROUNDS = 5;
+
+
+   public interface Operation
+   {
+      void run(int thread, long i) throws Exception;
+   }
+
+
+   /** Run ops operations spread over the threads, returns the median ns per operation */
+   public static double run(String name, int threads, long ops, Operation op) throws Exception
+   {
+      double[] rounds = new double[ROUNDS];
+      round(threads,ops,op);
+
+      for (int r = 0; r < ROUNDS; r++)
+         rounds[r] = round(threads,ops,op) / (double) ops;
+
+      Arrays.sort(rounds);
+      double median = rounds[ROUNDS/2];
+
+      System.out.println(String.format("%-40s threads: %2d  best: %10.1f ns/op  median: %10.1f ns/op",name,threads,rounds[0],median));
+      return(median);
+   }
+
+
+   private static long round(int threads, long ops, Operation op) throws Exception
+   {
+      long each = ops / threads;
+      Throwable[] failed = new Throwable[1];
+      ArrayList<Thread> workers = new ArrayList<Thread>();
+
+      for (int t = 0; t < threads; t++)
+      {
+         int thread = t;
+
+         workers.add(new Thread(() ->
+         {
+            try
+            {
+               for (long i = 0; i < each; i++)
+                  op.run(thread,i);
+            }
+            catch (Throwable e)
+            {
+               failed[0] = e;
+            }
+         }));
+      }
+
+      long time = System.nanoTime();
+
+      for(Thread worker : workers) worker.start();
+      for(Thread worker : workers) worker.join();
+
+      time = System.nanoTime() - time;
+
+      if (failed[0] != null)
+         throw new Exception(failed[0]);
+
+      return(time);
+   }
+
+
+   /** Keeps results alive, so the JIT cannot remove the work being measured */
+   public static volatile Object sink;
+}
@@ -0,0 +1,104 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package tools;
+
+import filters.Equals;
+import java.util.HashMap;
+import org.json.JSONObject;
+import jsondb.requests.Table;
+import sources.TableSource;
+import filters.definitions.Filter;
+import filters.WhereClause.Context;
+import java.lang.reflect.Method;
+
+
+/**
+ * Compares dispatching requests and filters through registered constructor and method references,
+ * with the reflective lookups used before. Only construction and method lookup are measured,
+ * so no database is needed.
+ *
+ * usage: DispatchBenchmark
+ */
+public class DispatchBenchmark
+{
+   private static final long OPS = 5000000;
+
+   private interface Factory
+   {
+      Object create(JSONObject definition) throws Exception;
+   }
+
+   private interface Invoker
+   {
+      Object invoke(Table table) throws Exception;
+   }
+
+
+   public static void main(String[] args) throws Exception
+   {
+      JSONObject request = new JSONObject("{\"source\": \"employees\", \"session\": \"guid\"}");
+      JSONObject filter = new JSONObject("{\"filter\": \"=\", \"column\": \"employee_id\", \"value\": 100}");
+
+      TableSource source = new TableSource(new JSONObject("{\"id\": \"employees\", \"object\": \"hr.employees\"}"));
+      Context context = new Context(null,source,true);
+
+      // The registry, as in RequestHandler
+      HashMap<String,Factory> factories = new HashMap<String,Factory>();
+      HashMap<String,Invoker> methods = new HashMap<String,Invoker>();
+
+      factories.put("table",Table::new);
+      methods.put("select",Table::select);
+
+      // The lookup used before
+      HashMap<String,Class<?>> classes = new HashMap<String,Class<?>>();
+      HashMap<String,Class<?>> filters = new HashMap<String,Class<?>>();
+
+      classes.put("table",Table.class);
+      filters.put("=",Equals.class);
+
+      Benchmark.run("request, reflection",1,OPS,(thread,i) ->
+      {
+         Object dbrq = classes.get("table").getConstructor(JSONObject.class).newInstance(request);
+         Method method = dbrq.getClass().getMethod("select");
+         Benchmark.sink = method;
+      });
+
+      Benchmark.run("request, references",1,OPS,(thread,i) ->
+      {
+         Object dbrq = factories.get("table").create(request);
+         Invoker method = methods.get("select");
+         Benchmark.sink = method;
+         Benchmark.sink = dbrq;
+      });
+
+      Benchmark.run("filter, reflection",1,OPS,(thread,i) ->
+      {
+         Class<?> clazz = filters.get("=");
+         Benchmark.sink = clazz.getConstructor(Context.class,JSONObject.class).newInstance(context,filter);
+      });
+
+      Benchmark.run("filter, Filter.getInstance",1,OPS,(thread,i) ->
+      {
+         Benchmark.sink = Filter.getInstance("=",context,filter);
+      });
+   }
+}
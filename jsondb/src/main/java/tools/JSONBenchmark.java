@@ -0,0 +1,152 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package tools;
+
+import java.util.Set;
+import utils.JSONOObject;
+import java.util.Map.Entry;
+import org.json.JSONObject;
+import java.lang.reflect.Field;
+import java.util.LinkedHashMap;
+
+
+/**
+ * Compares JSONOObject, that mirrors its keys in its own LinkedHashMap,
+ * with replacing the private map of JSONObject through reflection, as done before.
+ *
+ * usage: JSONBenchmark [keys]
+ */
+public class JSONBenchmark
+{
+   private static final long OPS = 1000000;
+
+
+   public static void main(String[] args) throws Exception
+   {
+      int keys = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+
+      String[] names = new String[keys];
+      for (int i = 0; i < keys; i++) names[i] = "key"+i;
+
+      Benchmark.run("put, reflection",1,OPS,(thread,i) ->
+      {
+         Reflective json = new Reflective();
+         for (int k = 0; k < keys; k++) json.put(names[k],k);
+         Benchmark.sink = json;
+      });
+
+      Benchmark.run("put, JSONOObject",1,OPS,(thread,i) ->
+      {
+         JSONOObject json = new JSONOObject();
+         for (int k = 0; k < keys; k++) json.put(names[k],k);
+         Benchmark.sink = json;
+      });
+
+      Benchmark.run("put, toString, reflection",1,OPS,(thread,i) ->
+      {
+         Reflective json = new Reflective();
+         for (int k = 0; k < keys; k++) json.put(names[k],k);
+         Benchmark.sink = json.toString();
+      });
+
+      Benchmark.run("put, toString, JSONOObject",1,OPS,(thread,i) ->
+      {
+         JSONOObject json = new JSONOObject();
+         for (int k = 0; k < keys; k++) json.put(names[k],k);
+         Benchmark.sink = json.toString();
+      });
+
+      Benchmark.run("put first, reflection",1,OPS,(thread,i) ->
+      {
+         Reflective json = new Reflective();
+         for (int k = 0; k < keys; k++) json.put(names[k],k);
+         Benchmark.sink = json.put(0,"first",true);
+      });
+
+      Benchmark.run("put first, JSONOObject",1,OPS,(thread,i) ->
+      {
+         JSONOObject json = new JSONOObject();
+         for (int k = 0; k < keys; k++) json.put(names[k],k);
+         Benchmark.sink = json.put(0,"first",true);
+      });
+
+      Reflective before = new Reflective();
+      JSONOObject after = new JSONOObject();
+
+      for (int k = keys-1; k >= 0; k--)
+      {
+         before.put(names[k],k);
+         after.put(names[k],k);
+      }
+
+      if (!before.toString().equals(after.toString()))
+         throw new Exception("Different key order: "+before+" "+after);
+   }
+
+
+   /** JSONOObject as it was, swapping the map of JSONObject on every put */
+   private static class Reflective extends JSONObject
+   {
+      @Override
+      public Reflective put(String key, Object value)
+      {
+         try
+         {
+            Field map = JSONObject.class.getDeclaredField("map");
+            map.setAccessible(true);
+
+            Object mapval = map.get(this);
+
+            if (!(mapval instanceof LinkedHashMap))
+               map.set(this,new LinkedHashMap<>());
+         }
+         catch (NoSuchFieldException | IllegalAccessException e)
+         {
+            throw new RuntimeException(e);
+         }
+
+         return((Reflective) super.put(key,value));
+      }
+
+      @SuppressWarnings("unchecked")
+      public Reflective put(int pos, String key, Object value) throws Exception
+      {
+         Field map = JSONObject.class.getDeclaredField("map");
+         map.setAccessible(true);
+
+         LinkedHashMap<String,Object> mapval = (LinkedHashMap<String,Object>) map.get(this);
+         LinkedHashMap<String,Object> cloned = (LinkedHashMap<String,Object>) mapval.clone();
+
+         mapval.clear();
+         Set<Entry<String,Object>> entries = cloned.entrySet();
+
+         int p = 0;
+         for(Entry<String,Object> entry : entries)
+         {
+            if (p++ == pos) mapval.put(key,value);
+            mapval.put(entry.getKey(),entry.getValue());
+         }
+
+         return(this);
+      }
+   }
+}
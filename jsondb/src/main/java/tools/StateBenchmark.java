@@ -0,0 +1,120 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package tools;
+
+import state.State;
+import http.Server;
+import jsondb.JsonDB;
+import jsondb.Session;
+import java.lang.reflect.Constructor;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Exercises the session registry in State from many threads. No database is needed,
+ * only an installation with a config folder. Sessions are registered directly, without
+ * writing session files. The churn runs check that the registry never keeps, or hands out,
+ * a retired session.
+ *
+ * usage: StateBenchmark instance [threads] [root]
+ */
+public class StateBenchmark
+{
+   private static final int SESSIONS = 1024;
+   private static final long OPS = 2000000;
+
+   private static Constructor<Session> factory = null;
+   private static final AtomicLong failures = new AtomicLong();
+
+
+   public static void main(String[] args) throws Exception
+   {
+      if (args.length < 1)
+      {
+         System.out.println("usage: StateBenchmark instance [threads] [root]");
+         System.exit(-1);
+      }
+
+      String inst = args[0];
+      int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+      String root = args.length > 2 ? args[2] : Server.findAppHome();
+
+      JsonDB.initialize(root,inst,null,false);
+
+      factory = Session.class.getDeclaredConstructor(String.class,String.class,boolean.class);
+      factory.setAccessible(true);
+
+      Session[] sessions = new Session[SESSIONS];
+
+      for (int i = 0; i < SESSIONS; i++)
+         sessions[i] = State.addSession(session("bench-"+i));
+
+      for (int t = 1; t <= threads; t *= 2)
+      {
+         int n = t;
+
+         Benchmark.run("getSession",n,OPS,(thread,i) ->
+         {
+            Session session = State.getSession(sessions[(int) (i % SESSIONS)].guid());
+            session.down();
+         });
+
+         Benchmark.run("addSession/removeSession",n,OPS/4,(thread,i) ->
+         {
+            String guid = "churn-"+thread+"-"+(i % 64);
+            Session session = session(guid);
+            Session current = State.addSession(session);
+
+            // No other thread uses this guid
+            if (current != session || current.clients() != 1)
+               failures.incrementAndGet();
+
+            State.removeSession(guid);
+         });
+
+         Benchmark.run("addSession/removeSession same guid",n,OPS/4,(thread,i) ->
+         {
+            Session session = session("contended");
+            Session current = State.addSession(session);
+
+            if (current != session) current.down();
+            State.removeSession("contended");
+         });
+      }
+
+      // Nothing retired may be left behind, and every session must be reachable by guid
+      for(Session session : State.sessions())
+      {
+         if (session.clients() == 0 || !State.hasSession(session))
+            failures.incrementAndGet();
+      }
+
+      System.out.println("failures: "+failures.get());
+      System.exit(failures.get() == 0 ? 0 : 1);
+   }
+
+
+   private static Session session(String guid) throws Exception
+   {
+      return(factory.newInstance(guid,"bench",false));
+   }
+}
@@ -0,0 +1,155 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Lock-free latency histogram with a fixed number of buckets.
+ * Values are recorded in microseconds. Below 16 each value has its own bucket,
+ * above that every power of 2 is split into 8 buckets, so percentiles are within 12.5%.
+ */
+public class Histogram
+{
+   private final AtomicLong max = new AtomicLong();
+   private final AtomicLong sum = new AtomicLong();
+   private final AtomicLong count = new AtomicLong();
+   private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+   private static final int SUB = 8;
+   private static final int LINEAR = 16;
+   private static final int MAXEXP = 40;
+   private static final int BUCKETS = LINEAR + (MAXEXP - 3) * SUB;
+
+
+   /** Record a duration in nanoseconds */
+   public void record(long nano)
+   {
+      long micro = nano / 1000;
+      if (micro < 0) micro = 0;
+
+      sum.addAndGet(micro);
+      count.incrementAndGet();
+      buckets.incrementAndGet(index(micro));
+      if (micro > max.get()) max.accumulateAndGet(micro,Math::max);
+   }
+
+
+   public long count()
+   {
+      return(count.get());
+   }
+
+
+   /** Sum of all values in microseconds */
+   public long sum()
+   {
+      return(sum.get());
+   }
+
+
+   /** Largest value in microseconds */
+   public long max()
+   {
+      return(max.get());
+   }
+
+
+   /** The value in microseconds, below which the fraction p of the values are */
+   public long percentile(double p)
+   {
+      long count = 0;
+      long total = this.count.get();
+
+      if (total == 0) return(0);
+      long rank = (long) Math.ceil(p * total);
+
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         count += buckets.get(i);
+         if (count >= rank) return(Math.min(upper(i),max.get()));
+      }
+
+      return(max.get());
+   }
+
+
+   /** Values recorded while resetting may be lost */
+   public void reset()
+   {
+      for (int i = 0; i < BUCKETS; i++)
+         buckets.set(i,0);
+
+      max.set(0);
+      sum.set(0);
+      count.set(0);
+   }
+
+
+   public JSONOObject toJSON()
+   {
+      JSONOObject json = new JSONOObject();
+
+      json.put("count",count());
+      json.put("p50",millis(percentile(0.50)));
+      json.put("p95",millis(percentile(0.95)));
+      json.put("p99",millis(percentile(0.99)));
+      json.put("max",millis(max()));
+
+      return(json);
+   }
+
+
+   private static double millis(long micro)
+   {
+      return(Math.round(micro / 10.0) / 100.0);
+   }
+
+
+   private static int index(long micro)
+   {
+      if (micro < LINEAR) return((int) micro);
+
+      int exp = 63 - Long.numberOfLeadingZeros(micro);
+      if (exp > MAXEXP) return(BUCKETS-1);
+
+      int sub = (int) (micro >>> (exp - 3)) & (SUB - 1);
+      return(LINEAR + (exp - 4) * SUB + sub);
+   }
+
+
+   private static long upper(int index)
+   {
+      if (index < LINEAR) return(index);
+
+      int exp = (index - LINEAR) / SUB + 4;
+      int sub = (index - LINEAR) % SUB;
+
+      long width = 1L << (exp - 3);
+      return((SUB + sub) * width + width - 1);
+   }
+}
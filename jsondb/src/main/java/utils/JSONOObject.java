@@ -25,15 +25,23 @@ SOFTWARE.
 package utils;
 
 import java.util.Set;
+import java.util.Iterator;
 import java.util.Map.Entry;
-import org.json.JSONObject;
 import org.json.JSONException;
-import java.lang.reflect.Field;
 import java.util.LinkedHashMap;
 
 
+/**
+ * A JSONObject that keeps the keys in the order they were put.
+ * The entries are mirrored in a LinkedHashMap, that is used whenever
+ * the object is iterated or written.
+ */
 public class JSONOObject extends org.json.JSONObject
 {
+   // Not initialized here, since the super constructor puts the entries when parsing
+   private LinkedHashMap<String,Object> ordered;
+
+
    public JSONOObject()
    {
       super();
@@ -47,50 +55,69 @@ public class JSONOObject extends org.json.JSONObject
    @Override
    public JSONOObject put(String key, Object value) throws JSONException
    {
-      try
-      {
-         Field map = JSONObject.class.getDeclaredField("map");
-         map.setAccessible(true);
+      super.put(key,value);
+      if (value != null) ordered().put(key,value);
+      return(this);
+   }
 
-         Object mapval = map.get(this);
+   public JSONOObject put(int pos, String key, Object value) throws JSONException
+   {
+      super.put(key,value);
 
-         if (!(mapval instanceof LinkedHashMap))
-            map.set(this,new LinkedHashMap<>());
-      }
-      catch (NoSuchFieldException | IllegalAccessException e)
+      LinkedHashMap<String,Object> cloned = ordered();
+      cloned.remove(key);
+
+      ordered = new LinkedHashMap<String,Object>();
+      if (value == null) pos = -1;
+
+      int p = 0;
+      for(Entry<String,Object> entry : cloned.entrySet())
       {
-         throw new RuntimeException(e);
+         if (p++ == pos) ordered.put(key,value);
+         ordered.put(entry.getKey(),entry.getValue());
       }
 
-      return((JSONOObject) super.put(key, value));
+      if (pos >= cloned.size())
+         ordered.put(key,value);
+
+      return(this);
    }
 
-   @SuppressWarnings("unchecked")
-   public JSONOObject put(int pos, String key, Object value) throws JSONException
+   @Override
+   public Object remove(String key)
    {
-      try
-      {
-         Field map = JSONObject.class.getDeclaredField("map");
-         map.setAccessible(true);
+      ordered().remove(key);
+      return(super.remove(key));
+   }
 
-         LinkedHashMap<String,Object> mapval = (LinkedHashMap<String,Object>) map.get(this);
-         LinkedHashMap<String,Object> cloned = (LinkedHashMap<String,Object>) mapval.clone();
+   @Override
+   public void clear()
+   {
+      ordered().clear();
+      super.clear();
+   }
 
-         mapval.clear();
-         Set<Entry<String,Object>> entries = cloned.entrySet();
+   @Override
+   public Set<String> keySet()
+   {
+      return(ordered().keySet());
+   }
 
-         int p = 0;
-         for(Entry<String,Object> entry : entries)
-         {
-            if (p++ == pos) mapval.put(key,value);
-            mapval.put(entry.getKey(),entry.getValue());
-         }
+   @Override
+   public Iterator<String> keys()
+   {
+      return(ordered().keySet().iterator());
+   }
 
-         return(this);
-      }
-      catch (NoSuchFieldException | IllegalAccessException e)
-      {
-         throw new RuntimeException(e);
-      }
+   @Override
+   protected Set<Entry<String,Object>> entrySet()
+   {
+      return(ordered().entrySet());
+   }
+
+   private LinkedHashMap<String,Object> ordered()
+   {
+      if (ordered == null) ordered = new LinkedHashMap<String,Object>();
+      return(ordered);
    }
-}
\ No newline at end of file
+}
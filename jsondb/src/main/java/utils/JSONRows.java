@@ -0,0 +1,103 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package utils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONString;
+import java.util.ArrayList;
+
+
+/**
+ * A page of rows, put in a response as is. When the response is streamed,
+ * the rows are written one by one, instead of being copied into a JSONArray first.
+ * As vectors, the page is written column by column, one array per column.
+ */
+public class JSONRows implements JSONString
+{
+   private final boolean vectors;
+   private final ArrayList<Object[]> rows;
+
+
+   public JSONRows(ArrayList<Object[]> rows)
+   {
+      this(rows,false);
+   }
+
+
+   public JSONRows(ArrayList<Object[]> rows, boolean vectors)
+   {
+      this.rows = rows;
+      this.vectors = vectors;
+   }
+
+
+   public boolean vectors()
+   {
+      return(vectors);
+   }
+
+
+   public int columns()
+   {
+      if (rows.size() == 0) return(0);
+      return(rows.get(0).length);
+   }
+
+
+   public int size()
+   {
+      return(rows.size());
+   }
+
+
+   public ArrayList<Object[]> rows()
+   {
+      return(rows);
+   }
+
+
+   @Override
+   public String toJSONString()
+   {
+      JSONArray json = new JSONArray();
+
+      if (!vectors)
+      {
+         for(Object[] row : rows) json.put(row);
+      }
+      else
+      {
+         for (int c = 0; c < columns(); c++)
+         {
+            JSONArray column = new JSONArray();
+            for(Object[] row : rows) column.put(JSONObject.wrap(row[c]));
+            json.put(column);
+         }
+      }
+
+      return(json.toString());
+   }
+}
@@ -0,0 +1,205 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+package utils;
+
+import java.util.Map;
+import java.io.Writer;
+import org.json.JSONArray;
+import java.util.Collection;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Writes a json object directly to a stream, without building the text in memory first.
+ * Rows in a response are written as they are, see JSONRows.
+ */
+public class JSONStreamWriter
+{
+   private final int indent;
+   private final Writer out;
+
+   private static final int BUFSIZE = 8192;
+
+
+   public static void write(OutputStream out, JSONObject json, int indent) throws IOException
+   {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(out,StandardCharsets.UTF_8),BUFSIZE);
+      new JSONStreamWriter(writer,indent).value(json,0);
+      writer.flush();
+   }
+
+
+   private JSONStreamWriter(Writer out, int indent)
+   {
+      this.out = out;
+      this.indent = indent;
+   }
+
+
+   private void value(Object value, int level) throws IOException
+   {
+      if (value instanceof JSONObject)
+      {
+         object((JSONObject) value,level);
+      }
+
+      else if (value instanceof JSONArray)
+      {
+         JSONArray array = (JSONArray) value;
+
+         out.write('[');
+
+         for (int i = 0; i < array.length(); i++)
+         {
+            if (i > 0) out.write(',');
+            newline(level+1);
+            value(array.get(i),level+1);
+         }
+
+         if (array.length() > 0) newline(level);
+         out.write(']');
+      }
+
+      else if (value instanceof JSONRows && ((JSONRows) value).vectors())
+      {
+         vectors((JSONRows) value,level);
+      }
+
+      else if (value instanceof JSONRows)
+      {
+         JSONRows rows = (JSONRows) value;
+
+         out.write('[');
+
+         for (int i = 0; i < rows.size(); i++)
+         {
+            if (i > 0) out.write(',');
+            newline(level+1);
+            row(rows.rows().get(i),level+1);
+         }
+
+         if (rows.size() > 0) newline(level);
+         out.write(']');
+      }
+
+      else if (value instanceof Object[])
+      {
+         row((Object[]) value,level);
+      }
+
+      else if (value instanceof Collection || value instanceof Map || (value != null && value.getClass().isArray()))
+      {
+         value(JSONObject.wrap(value),level);
+      }
+
+      else
+      {
+         out.write(JSONObject.valueToString(value));
+      }
+   }
+
+
+   private void object(JSONObject json, int level) throws IOException
+   {
+      boolean first = true;
+
+      out.write('{');
+
+      for(String key : json.keySet())
+      {
+         if (!first) out.write(',');
+         newline(level+1);
+
+         out.write(JSONObject.quote(key));
+         out.write(indent > 0 ? ": " : ":");
+
+         value(json.opt(key),level+1);
+         first = false;
+      }
+
+      if (!first) newline(level);
+      out.write('}');
+   }
+
+
+   private void row(Object[] row, int level) throws IOException
+   {
+      out.write('[');
+
+      for (int i = 0; i < row.length; i++)
+      {
+         if (i > 0) out.write(',');
+         newline(level+1);
+         out.write(JSONObject.valueToString(JSONObject.wrap(row[i])));
+      }
+
+      if (row.length > 0) newline(level);
+      out.write(']');
+   }
+
+
+   private void vectors(JSONRows rows, int level) throws IOException
+   {
+      int columns = rows.columns();
+
+      out.write('[');
+
+      for (int c = 0; c < columns; c++)
+      {
+         if (c > 0) out.write(',');
+         newline(level+1);
+
+         out.write('[');
+
+         for (int r = 0; r < rows.size(); r++)
+         {
+            if (r > 0) out.write(',');
+            out.write(JSONObject.valueToString(JSONObject.wrap(rows.rows().get(r)[c])));
+         }
+
+         out.write(']');
+      }
+
+      if (columns > 0) newline(level);
+      out.write(']');
+   }
+
+
+   private void newline(int level) throws IOException
+   {
+      if (indent <= 0)
+         return;
+
+      out.write('\n');
+
+      for (int i = 0; i < level * indent; i++)
+         out.write(' ');
+   }
+}
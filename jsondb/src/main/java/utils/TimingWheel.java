@@ -0,0 +1,213 @@
+/*
+MIT License
+
+Copyright (c) 2024 Alex Høffner
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package utils;
+
+import jsondb.Config;
+import java.util.ArrayList;
+import java.util.logging.Level;
+
+
+/**
+ * Hierarchical timing wheel. Levels of 64 slots, each slot on a level
+ * covers 64 slots on the level below. Scheduling and expiring are O(1).
+ *
+ * Pushing a deadline further out is just an assignment, the timeout is
+ * moved when its old deadline is reached. When expired, a timeout returns
+ * its next deadline, or 0 if it should not be rescheduled.
+ */
+public class TimingWheel extends Thread
+{
+   private static final int BITS = 6;
+   private static final int LEVELS = 4;
+   private static final int SLOTS = 1 << BITS;
+   private static final int MASK = SLOTS - 1;
+
+   private final long tick;
+   private long current = 0;
+   private final ArrayList<ArrayList<Timeout>> wheel;
+
+
+   public TimingWheel(long tick)
+   {
+      this.tick = tick;
+      this.current = System.currentTimeMillis()/tick;
+      this.wheel = new ArrayList<ArrayList<Timeout>>();
+
+      for (int i = 0; i < LEVELS * SLOTS; i++)
+         wheel.add(new ArrayList<Timeout>());
+
+      this.setDaemon(true);
+      this.setName(this.getClass().getName());
+   }
+
+
+   /**
+    * Make sure the timeout expires no earlier than deadline
+    */
+   public void schedule(Timeout timeout, long deadline)
+   {
+      synchronized(timeout)
+      {
+         if (deadline > timeout.deadline)
+            timeout.deadline = deadline;
+
+         if (timeout.scheduled) return;
+         timeout.scheduled = true;
+      }
+
+      synchronized(this)
+      {add(timeout,current+1);}
+   }
+
+
+   public void run()
+   {
+      while (true)
+      {
+         try
+         {
+            long now = System.currentTimeMillis();
+
+            ArrayList<Timeout> expired = null;
+            synchronized(this) {expired = advance(now/tick);}
+
+            for(Timeout timeout : expired)
+               expire(timeout,now);
+
+            sleep(tick - System.currentTimeMillis() % tick);
+         }
+         catch (Throwable t)
+         {
+            Config.logger().log(Level.SEVERE,t.toString(),t);
+         }
+      }
+   }
+
+
+   private ArrayList<Timeout> advance(long target)
+   {
+      ArrayList<Timeout> expired = new ArrayList<Timeout>();
+
+      while (current < target)
+      {
+         current++;
+
+         // Move timeouts down from the levels where a slot starts now
+         int levels = 0;
+         while (levels < LEVELS-1 && (current & ((1L << (BITS*(levels+1)))-1)) == 0)
+            levels++;
+
+         for (int level = levels; level > 0; level--)
+         {
+            ArrayList<Timeout> slot = swap(level,(int) ((current >> (BITS*level)) & MASK));
+            for(Timeout timeout : slot) add(timeout,current);
+         }
+
+         for(Timeout timeout : swap(0,(int) (current & MASK)))
+         {
+            // Deadline has been pushed
+            if (due(timeout) > current) add(timeout,current);
+            else expired.add(timeout);
+         }
+      }
+
+      return(expired);
+   }
+
+
+   private void expire(Timeout timeout, long now)
+   {
+      long next = 0;
+
+      try {next = timeout.expired(now);}
+      catch (Throwable t)
+      {
+         next = now + SLOTS * tick;
+         Config.logger().log(Level.SEVERE,t.toString(),t);
+      }
+
+      synchronized(timeout)
+      {
+         // Rescheduled while running
+         if (timeout.deadline > now && timeout.deadline > next)
+            next = timeout.deadline;
+
+         timeout.deadline = next;
+         timeout.scheduled = next > 0;
+      }
+
+      if (next > 0)
+      {
+         synchronized(this)
+         {add(timeout,current+1);}
+      }
+   }
+
+
+   private void add(Timeout timeout, long min)
+   {
+      long due = due(timeout);
+      if (due < min) due = min;
+
+      int level = 0;
+      long delta = due - current;
+
+      while (level < LEVELS-1 && delta >= (1L << (BITS*(level+1))))
+         level++;
+
+      // Beyond the last level, picked up again when the slot is cascaded
+      if (delta >= (1L << (BITS*LEVELS)))
+         due = current + (1L << (BITS*LEVELS)) - 1;
+
+      int slot = (int) ((due >> (BITS*level)) & MASK);
+      wheel.get(level*SLOTS+slot).add(timeout);
+   }
+
+
+   private long due(Timeout timeout)
+   {
+      return((timeout.deadline + tick - 1)/tick);
+   }
+
+
+   private ArrayList<Timeout> swap(int level, int slot)
+   {
+      ArrayList<Timeout> timeouts = wheel.get(level*SLOTS+slot);
+      wheel.set(level*SLOTS+slot,new ArrayList<Timeout>());
+      return(timeouts);
+   }
+
+
+   public static abstract class Timeout
+   {
+      private volatile long deadline = 0;
+      private boolean scheduled = false;
+
+      /**
+       * @param now the current time
+       * @return the next deadline or 0
+       */
+      public abstract long expired(long now) throws Exception;
+   }
+}
@@ -29,6 +29,7 @@ import jsondb.Config;
 import jsondb.JsonDB;
 import jsondb.Response;
 import http.HTTPConfig;
+import http.Compression;
 import http.AdminResponse;
 import files.FileResponse;
 import java.io.IOException;
@@ -165,8 +166,16 @@ public class JsonWebDB extends HttpServlet
             Response json = jsondb.execute(appl,body);
 
             response.setContentType(JSONType);
-            OutputStream out = response.getOutputStream();
-            out.write(json.toString().getBytes());
+            String accept = request.getHeader("Accept-Encoding");
+
+            Compression out = Compression.stream(accept,response.getOutputStream(),(encoding,length) ->
+            {
+               response.setHeader("Vary","Accept-Encoding");
+               if (encoding != null) response.setHeader("Content-Encoding",encoding);
+               if (length > 0) response.setContentLength((int) length);
+            });
+
+            json.write(out,Response.indent(request.getQueryString()));
             out.close();
             return;
          }